@@ -0,0 +1,166 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package communication;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Frames used to send encoded objects: a 4 byte header with the length of the frame followed by the frame. When the
+ * highest bit of the header is set the frame is compressed: it contains the length of the encoded object (4 bytes)
+ * followed by the object compressed with Deflater.
+ * 
+ * All the compressed frames of a stream are compressed with the same Deflater, flushed (SYNC_FLUSH) at the end of
+ * each frame, so later frames benefit from the data already sent (e.g. repeated recipe texts). Therefore each stream
+ * has its own instance and compressed frames must be decompressed in the order they are written. Frames smaller than
+ * the compression threshold are not compressed.
+ */
+public class Frames {
+	public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	private static final int COMPRESSED = 0x80000000;
+
+	// compression of written frames (negative: not compressed)
+	private int compressionThreshold = -1;
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] buffer = new byte[8192];
+
+	/**
+	 * Compresses the frames written from now on that are at least as large as threshold
+	 * 
+	 * @param threshold
+	 */
+	public void enableCompression(int threshold) {
+		this.compressionThreshold = Math.max(0, threshold);
+	}
+
+	/**
+	 * Writes the encoded object contained in payload as a frame
+	 * 
+	 * @param out
+	 * @param payload
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out, ByteArrayOutputStream payload) throws IOException {
+		if (compressionThreshold < 0 || payload.size() < compressionThreshold) {
+			out.writeInt(payload.size());
+			payload.writeTo(out);
+			return;
+		}
+		byte[] compressed = compress(payload.toByteArray());
+		out.writeInt(COMPRESSED | (compressed.length + 4));
+		out.writeInt(payload.size());
+		out.write(compressed);
+	}
+
+	/**
+	 * @param header
+	 * @return length of the frame
+	 * @throws IOException if length is not valid
+	 */
+	public static int length(int header) throws IOException {
+		int length = header & ~COMPRESSED;
+		if (length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * @param header
+	 * @return true if the frame is compressed
+	 */
+	public static boolean isCompressed(int header) {
+		return (header & COMPRESSED) != 0;
+	}
+
+	/**
+	 * @param frame
+	 * @param offset
+	 * @param length
+	 * @return the encoded object contained in a compressed frame
+	 * @throws IOException
+	 */
+	public byte[] decompress(byte[] frame, int offset, int length) throws IOException {
+		if (length < 4) {
+			throw new IOException("Invalid compressed frame");
+		}
+		int size = ((frame[offset] & 0xFF) << 24) | ((frame[offset + 1] & 0xFF) << 16)
+				| ((frame[offset + 2] & 0xFF) << 8) | (frame[offset + 3] & 0xFF);
+		if (size < 0 || size > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid compressed frame length: " + size);
+		}
+		if (inflater == null) {
+			inflater = new Inflater(true);
+		}
+		byte[] data = new byte[size];
+		inflater.setInput(frame, offset + 4, length - 4);
+		try {
+			int total = 0;
+			while (total < size) {
+				int n = inflater.inflate(data, total, size - total);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated compressed frame");
+				}
+				total += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed frame: " + e.getMessage());
+		}
+		return data;
+	}
+
+	/**
+	 * Releases the native memory of the Deflater and Inflater. Must be called when the stream is closed: the instance
+	 * can not be used afterwards.
+	 */
+	public void end() {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+
+	private byte[] compress(byte[] data) {
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+		deflater.setInput(data);
+		int n;
+		do {
+			n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+			compressed.write(buffer, 0, n);
+		} while (n == buffer.length);
+		return compressed.toByteArray();
+	}
+}
@@ -0,0 +1,36 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package communication;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encoding used by ObjectOutputStream_DS and ObjectInputStream_DS instead of Java serialization. A codec may keep
+ * state between objects (e.g. dictionaries), so each stream uses its own instance and the objects written by an
+ * encoder must be read, in the same order, by a single decoder.
+ */
+public interface ObjectCodec {
+	public void encode(Object obj, DataOutput out) throws IOException;
+
+	public Object decode(DataInput in) throws IOException, ClassNotFoundException;
+}
@@ -20,32 +20,92 @@
 
 package communication;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 
 import recipes_service.activity_simulation.SimulationData;
 
-
 /**
  * Implements a modification of the ObjectInputStream to simulate failures.
  * 
+ * When created with an ObjectCodec, reads the frames (compressed or not) written by an ObjectOutputStream_DS that
+ * uses the same kind of codec.
+ * 
  * @author Joan-Manuel Marques
  * December 2012
  *
  */
 public class ObjectInputStream_DS {
 	private ObjectInputStream in;
+
+	// framed format (only when a codec is used)
+	private ObjectCodec codec;
+	private DataInputStream frameIn;
+	private Frames frames;
 	
 	public ObjectInputStream_DS(InputStream inStream) throws IOException{
 		in = new ObjectInputStream(inStream);
 	}
 
+	/**
+	 * @param inStream
+	 * @param codec encoding of the objects (null: Java serialization)
+	 * @throws IOException
+	 */
+	public ObjectInputStream_DS(InputStream inStream, ObjectCodec codec) throws IOException{
+		if (codec == null){
+			in = new ObjectInputStream(inStream);
+		} else {
+			this.codec = codec;
+			this.frameIn = new DataInputStream(new BufferedInputStream(inStream));
+			this.frames = new Frames();
+		}
+	}
+
 	public Object readObject() throws IOException, ClassNotFoundException{
 		if (SimulationData.getInstance().isConnected()){
-			return in.readObject();
+			if (codec == null){
+				return in.readObject();
+			}
+			return readFrame();
 		}
-		in.close();
+		close();
 		throw new IOException("Trying to read from a closed ObjectInputStream_DS");
 	}
+
+	private Object readFrame() throws IOException, ClassNotFoundException{
+		int header = frameIn.readInt();
+		byte[] frame = new byte[Frames.length(header)];
+		frameIn.readFully(frame);
+		if (Frames.isCompressed(header)){
+			frame = frames.decompress(frame, 0, frame.length);
+		}
+		DataInputStream frameData = new DataInputStream(new ByteArrayInputStream(frame));
+		Object obj = codec.decode(frameData);
+		if (frameData.available() > 0){
+			throw new IOException("Unexpected data at the end of a frame");
+		}
+		return obj;
+	}
+
+	/**
+	 * Closes the stream and releases its compression state
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		if (codec == null){
+			in.close();
+		} else {
+			try {
+				frameIn.close();
+			} finally {
+				frames.end();
+			}
+		}
+	}
 }
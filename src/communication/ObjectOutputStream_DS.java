@@ -20,33 +20,118 @@
 
 package communication;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 import recipes_service.activity_simulation.SimulationData;
 
-
 /**
  * Implements a modification of the ObjectOutputStream to simulate failures.
  * 
+ * When created with an ObjectCodec, objects are encoded with the codec instead of Java serialization and each one is
+ * written as a frame (see Frames), that may be compressed.
+ * 
  * @author Joan-Manuel Marques
  * December 2012
  *
  */
 public class ObjectOutputStream_DS {
 	private ObjectOutputStream out;
+
+	// framed format (only when a codec is used)
+	private ObjectCodec codec;
+	private DataOutputStream frameOut;
+	private Frames frames;
+	private ByteArrayOutputStream buffer;
+	private DataOutputStream bufferOut;
 	
 	public ObjectOutputStream_DS(OutputStream outStream) throws IOException{
-		this.out = new ObjectOutputStream(outStream);
+		this(outStream, null);
+	}
+
+	/**
+	 * @param outStream
+	 * @param codec encoding of the objects (null: Java serialization)
+	 * @throws IOException
+	 */
+	public ObjectOutputStream_DS(OutputStream outStream, ObjectCodec codec) throws IOException{
+		if (codec == null){
+			// buffered (and flushed after each object) to avoid sending many small packets
+			this.out = new ObjectOutputStream(new BufferedOutputStream(outStream));
+			this.out.flush();
+		} else {
+			this.codec = codec;
+			this.frameOut = new DataOutputStream(new BufferedOutputStream(outStream));
+			this.frames = new Frames();
+			this.buffer = new ByteArrayOutputStream();
+			this.bufferOut = new DataOutputStream(buffer);
+		}
 	}
 
 	public void writeObject(Object obj) throws IOException{
 		if (SimulationData.getInstance().isConnected()){
-			out.writeObject(obj);
+			if (codec == null){
+				out.writeObject(obj);
+				out.flush();
+			} else {
+				writeFrame(obj);
+			}
 		} else {
-			out.close();
+			close();
 			throw new IOException("Trying to write into a closed ObjectOutputStream_DS");
 		}
 	}
+
+	/**
+	 * Forgets the objects already written, so the objects written afterwards do not refer to them. Used when the
+	 * stream is reused for a new TSAE session.
+	 * 
+	 * @throws IOException
+	 */
+	public void reset() throws IOException{
+		if (codec == null){
+			out.reset();
+		}
+	}
+
+	/**
+	 * Compresses the objects written from now on whose encoding is at least as large as threshold (bytes). Only
+	 * supported when a codec is used: Java serialization is never compressed.
+	 * 
+	 * @param threshold
+	 */
+	public void enableCompression(int threshold){
+		if (codec != null){
+			frames.enableCompression(threshold);
+		}
+	}
+
+	private void writeFrame(Object obj) throws IOException{
+		buffer.reset();
+		codec.encode(obj, bufferOut);
+		bufferOut.flush();
+		frames.write(frameOut, buffer);
+		frameOut.flush();
+	}
+
+	/**
+	 * Closes the stream and releases its compression state
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		if (codec == null){
+			out.close();
+		} else {
+			try {
+				frameOut.close();
+			} finally {
+				frames.end();
+			}
+		}
+	}
 }
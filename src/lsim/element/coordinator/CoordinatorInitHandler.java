@@ -68,6 +68,28 @@ public class CoordinatorInitHandler implements Handler {
 					lsim.addInitParam(instance_name,"sessionPeriod",params.get("sessionPeriod"));
 					lsim.addInitParam(instance_name,"numSes",params.get("numSes"));
 					lsim.addInitParam(instance_name,"propDegree",params.get("propDegree"));
+					lsim.addInitParam(instance_name,"operationBatchSize",params.get("operationBatchSize"));
+					lsim.addInitParam(instance_name,"wireFormat",params.get("wireFormat"));
+					lsim.addInitParam(instance_name,"nioSessionServer",params.get("nioSessionServer"));
+					lsim.addInitParam(instance_name,"virtualThreads",params.get("virtualThreads"));
+					lsim.addInitParam(instance_name,"parallelSessions",params.get("parallelSessions"));
+					lsim.addInitParam(instance_name,"sessionRoundTimeout",params.get("sessionRoundTimeout"));
+					lsim.addInitParam(instance_name,"connectionPooling",params.get("connectionPooling"));
+					lsim.addInitParam(instance_name,"connectionIdleTimeout",params.get("connectionIdleTimeout"));
+					lsim.addInitParam(instance_name,"fullDuplexSessions",params.get("fullDuplexSessions"));
+					lsim.addInitParam(instance_name,"compression",params.get("compression"));
+					lsim.addInitParam(instance_name,"compressionThreshold",params.get("compressionThreshold"));
+					lsim.addInitParam(instance_name,"digestHandshake",params.get("digestHandshake"));
+					lsim.addInitParam(instance_name,"deltaSummaries",params.get("deltaSummaries"));
+					lsim.addInitParam(instance_name,"asyncPropagation",params.get("asyncPropagation"));
+					lsim.addInitParam(instance_name,"propagationWindow",params.get("propagationWindow"));
+					lsim.addInitParam(instance_name,"adaptiveSessions",params.get("adaptiveSessions"));
+					lsim.addInitParam(instance_name,"partnerSelection",params.get("partnerSelection"));
+					lsim.addInitParam(instance_name,"operationCache",params.get("operationCache"));
+					lsim.addInitParam(instance_name,"streamingApply",params.get("streamingApply"));
+					lsim.addInitParam(instance_name,"streamingApplyBatch",params.get("streamingApplyBatch"));
+					lsim.addInitParam(instance_name,"applyLoop",params.get("applyLoop"));
+					lsim.addInitParam(instance_name,"applyQueueCapacity",params.get("applyQueueCapacity"));
 					lsim.addInitParam(instance_name,"simulationStop",params.get("simulationStop"));
 					lsim.addInitParam(instance_name,"executionStop",params.get("executionStop"));
 					lsim.addInitParam(instance_name,"simulationDelay",params.get("simulationDelay"));
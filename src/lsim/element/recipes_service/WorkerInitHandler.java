@@ -36,6 +36,8 @@ import recipes_service.ServerData;
 import recipes_service.ServerPartnerSide;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
+import recipes_service.communication.WireFormat;
+import recipes_service.tsae.sessions.PartnerSelection;
 import util.Serializer;
 
 /**
@@ -78,6 +80,74 @@ public class WorkerInitHandler implements Handler {
 		serverData.setNumberSessions(Integer.parseInt((String)params.get("numSes"))*1000);
 		serverData.setPropagationDegree(Integer.parseInt((String)params.get("propDegree"))*1000);
 
+		// optional TSAE parameters: when not defined serverData keeps its default value
+		if (params.get("operationBatchSize") != null){
+			serverData.setOperationBatchSize(Integer.parseInt((String)params.get("operationBatchSize")));
+		}
+		if (params.get("wireFormat") != null){
+			serverData.setWireFormat(WireFormat.valueOf(((String)params.get("wireFormat")).trim().toUpperCase()));
+		}
+		if (params.get("nioSessionServer") != null){
+			serverData.setNioSessionServer(Boolean.parseBoolean(((String)params.get("nioSessionServer")).trim()));
+		}
+		if (params.get("virtualThreads") != null){
+			serverData.setVirtualThreads(Boolean.parseBoolean(((String)params.get("virtualThreads")).trim()));
+		}
+		if (params.get("parallelSessions") != null){
+			serverData.setParallelSessions(Boolean.parseBoolean(((String)params.get("parallelSessions")).trim()));
+		}
+		if (params.get("sessionRoundTimeout") != null){
+			serverData.setSessionRoundTimeout(Long.parseLong(((String)params.get("sessionRoundTimeout")).trim())*1000);
+		}
+		if (params.get("connectionPooling") != null){
+			serverData.setConnectionPooling(Boolean.parseBoolean(((String)params.get("connectionPooling")).trim()));
+		}
+		if (params.get("connectionIdleTimeout") != null){
+			serverData.setConnectionIdleTimeout(Long.parseLong(((String)params.get("connectionIdleTimeout")).trim())*1000);
+		}
+		if (params.get("fullDuplexSessions") != null){
+			serverData.setFullDuplexSessions(Boolean.parseBoolean(((String)params.get("fullDuplexSessions")).trim()));
+		}
+		if (params.get("compression") != null){
+			serverData.setCompression(Boolean.parseBoolean(((String)params.get("compression")).trim()));
+		}
+		if (params.get("compressionThreshold") != null){
+			serverData.setCompressionThreshold(Integer.parseInt(((String)params.get("compressionThreshold")).trim()));
+		}
+		if (params.get("digestHandshake") != null){
+			serverData.setDigestHandshake(Boolean.parseBoolean(((String)params.get("digestHandshake")).trim()));
+		}
+		if (params.get("deltaSummaries") != null){
+			serverData.setDeltaSummaries(Boolean.parseBoolean(((String)params.get("deltaSummaries")).trim()));
+		}
+		if (params.get("asyncPropagation") != null){
+			serverData.setAsyncPropagation(Boolean.parseBoolean(((String)params.get("asyncPropagation")).trim()));
+		}
+		if (params.get("propagationWindow") != null){
+			serverData.setPropagationWindow(Long.parseLong(((String)params.get("propagationWindow")).trim()));
+		}
+		if (params.get("adaptiveSessions") != null){
+			serverData.setAdaptiveSessions(Boolean.parseBoolean(((String)params.get("adaptiveSessions")).trim()));
+		}
+		if (params.get("partnerSelection") != null){
+			serverData.setPartnerSelection(PartnerSelection.valueOf(((String)params.get("partnerSelection")).trim().toUpperCase()));
+		}
+		if (params.get("operationCache") != null){
+			serverData.setOperationCache(Boolean.parseBoolean(((String)params.get("operationCache")).trim()));
+		}
+		if (params.get("streamingApply") != null){
+			serverData.setStreamingApply(Boolean.parseBoolean(((String)params.get("streamingApply")).trim()));
+		}
+		if (params.get("streamingApplyBatch") != null){
+			serverData.setStreamingApplyBatch(Integer.parseInt(((String)params.get("streamingApplyBatch")).trim()));
+		}
+		if (params.get("applyLoop") != null){
+			serverData.setApplyLoop(Boolean.parseBoolean(((String)params.get("applyLoop")).trim()));
+		}
+		if (params.get("applyQueueCapacity") != null){
+			serverData.setApplyQueueCapacity(Integer.parseInt(((String)params.get("applyQueueCapacity")).trim()));
+		}
+
 		// params 4 to 11: simulation parameters
 		SimulationData.getInstance().setSimulationStop(Integer.parseInt((String)params.get("simulationStop"))*1000);
 		SimulationData.getInstance().setExecutionStop(Integer.parseInt((String)params.get("executionStop"))*1000);
@@ -113,7 +183,7 @@ public class WorkerInitHandler implements Handler {
 		// publish the service in the first empty port staring on obj.get(0)
 		// (starts a thread to deal with TSAE sessions from partner servers)
 		// set connected state on simulation data
-		ServerPartnerSide serverPartnerSide = new ServerPartnerSide(port, serverData);
+		ServerPartnerSide serverPartnerSide = ServerPartnerSide.create(port, serverData);
 		serverPartnerSide.start();
 		
 		String hostAddress = null;
@@ -0,0 +1,177 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import edu.uoc.dpcs.lsim.LSimFactory;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.worker.LSimWorker;
+
+/**
+ * Single thread that applies all the updates of the data structures of a server (local writes and operations
+ * received in TSAE sessions). Threads submit commands through a bounded queue (they block when it is full) and wait
+ * until their command has been applied.
+ * 
+ * The commands queued are applied in batches: after each batch the recipes (updated as a Recipes.Batch) are
+ * published, so readers never take a lock. The commands of a batch complete once their changes have been published.
+ * ReplicaSnapshots are only built (also by a command) when a session needs one and there have been updates since the
+ * last one.
+ * 
+ * A failure of a command is thrown to the thread that submitted it, and every command of a batch completes even if
+ * publishing the batch fails. The thread of the loop ignores interrupts and, if it dies anyway, a new one takes over
+ * the queue.
+ */
+class ApplyLoop implements Runnable {
+	private LSimWorker lsim = LSimFactory.getWorkerInstance();
+
+	private ServerData serverData;
+	private BlockingQueue<Command<?>> queue;
+	private volatile Thread thread;
+
+	ApplyLoop(ServerData serverData, int capacity) {
+		this.serverData = serverData;
+		this.queue = new ArrayBlockingQueue<Command<?>>(Math.max(1, capacity));
+	}
+
+	synchronized void start() {
+		thread = new Thread(this, "ApplyLoop-" + serverData.getId());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Applies a command on the thread of the loop and waits until it has been applied and published
+	 * 
+	 * @param task
+	 * @return result of the command
+	 */
+	<V> V execute(Callable<V> task) {
+		Command<V> command = new Command<V>(task);
+		if (Thread.currentThread() == thread) {
+			// already on the loop (a command that submits another one)
+			command.apply();
+			return command.get();
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(command);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		while (true) {
+			try {
+				command.done.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return command.get();
+	}
+
+	@Override
+	public void run() {
+		List<Command<?>> batch = new ArrayList<Command<?>>();
+		try {
+			while (true) {
+				try {
+					batch.add(queue.take());
+				} catch (InterruptedException e) {
+					// callers would wait forever if the loop stopped
+					lsim.log(Level.WARN, "[ApplyLoop] [" + Thread.currentThread().getName() + "] interrupt ignored");
+					continue;
+				}
+				queue.drainTo(batch);
+				serverData.beginRecipesBatch();
+				try {
+					for (Command<?> command : batch) {
+						command.apply();
+					}
+					publish();
+				} finally {
+					for (Command<?> command : batch) {
+						command.done.countDown();
+					}
+					batch.clear();
+				}
+			}
+		} catch (Throwable t) {
+			lsim.log(Level.ERROR, "[ApplyLoop] [" + Thread.currentThread().getName() + "] restarting after: " + t);
+			start();
+		}
+	}
+
+	/**
+	 * Publishes the changes of the batch just applied. If it fails, they are published with the next batch.
+	 */
+	private void publish() {
+		try {
+			serverData.endBatch();
+		} catch (Throwable t) {
+			lsim.log(Level.ERROR, "[ApplyLoop] [" + Thread.currentThread().getName() + "] batch not published: " + t);
+		}
+	}
+
+	private static class Command<V> {
+		private Callable<V> task;
+		private V result;
+		private Throwable failure;
+		private CountDownLatch done = new CountDownLatch(1);
+
+		Command(Callable<V> task) {
+			this.task = task;
+		}
+
+		void apply() {
+			try {
+				result = task.call();
+			} catch (Throwable t) {
+				failure = t;
+			}
+		}
+
+		V get() {
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			if (failure != null) {
+				throw new RuntimeException(failure);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import communication.Frames;
+import communication.ObjectCodec;
+import edu.uoc.dpcs.lsim.LSimFactory;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import lsim.worker.LSimWorker;
+import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Message;
+import recipes_service.tsae.sessions.PartnerSession;
+
+/**
+ * Server for TSAE sessions from partner servers that uses non-blocking sockets: all sessions are multiplexed on a
+ * small fixed number of event-loop threads instead of using a thread for each session.
+ * 
+ * Each connection reads the frames written by an ObjectOutputStream_DS with the binary codec, passes the decoded
+ * messages to a PartnerSession and writes back, as frames, the replies. A connection is kept open after a session
+ * that ended properly, until the originator closes it. Therefore it requires wireFormat=binary (see
+ * ServerPartnerSide.create()).
+ */
+public class NioServerPartnerSide extends ServerPartnerSide {
+	// Needed for the logging system sgeag@2017
+	private LSimWorker lsim = LSimFactory.getWorkerInstance();
+
+	// number of event-loop threads
+	private static final int EVENT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	public NioServerPartnerSide(int port, ServerData serverData) {
+		super(port, serverData);
+	}
+
+	@Override
+	protected ServerSocket openServerSocket() throws IOException {
+		return ServerSocketChannel.open().socket();
+	}
+
+	/**
+	 * accepts remote TSAE connections and assigns them, in turns, to the event loops
+	 */
+	@Override
+	protected void serve() {
+		ServerSocketChannel serverChannel = serverSocket.getChannel();
+		EventLoop[] loops = new EventLoop[EVENT_LOOPS];
+		Selector selector = null;
+		try {
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop("TSAEPartnerSideLoop-" + i);
+				loops[i].start();
+			}
+			serverChannel.configureBlocking(false);
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			lsim.log(Level.ERROR, "[NioServerPartnerSide] " + e.getMessage());
+			e.printStackTrace();
+			shutdown(loops, selector);
+			return;
+		}
+
+		int next = 0;
+		while (!serverData.end()) {
+			try {
+				// select will block at most for this amount of time.
+				// if server should stop it will close and finish.
+				// In other case it will block again.
+				selector.select(20000);
+				selector.selectedKeys().clear();
+				SocketChannel channel;
+				while ((channel = serverChannel.accept()) != null) {
+					loops[next].register(channel);
+					next = (next + 1) % loops.length;
+				}
+			} catch (IOException e) {
+				lsim.log(Level.ERROR, "[NioServerPartnerSide] " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+		shutdown(loops, selector);
+	}
+
+	private void shutdown(EventLoop[] loops, Selector selector) {
+		for (EventLoop loop : loops) {
+			if (loop != null) {
+				loop.shutdown();
+			}
+		}
+		if (selector != null) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				/* nothing to do */
+			}
+		}
+	}
+
+	/**
+	 * Thread that drives the I/O of the connections assigned to it. The work of the sessions (PartnerSession), which
+	 * may take locks or wait for the apply loop, is done by serverData.getSessionExecutor(), so a slow session does
+	 * not stall the other connections of the event loop.
+	 */
+	private class EventLoop extends Thread {
+		private Selector selector;
+		private ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+		// messages processed by the session executor, to be handled by this thread
+		private ConcurrentLinkedQueue<Runnable> completions = new ConcurrentLinkedQueue<Runnable>();
+		private volatile boolean running = true;
+
+		EventLoop(String name) throws IOException {
+			super(name);
+			setDaemon(true);
+			this.selector = Selector.open();
+		}
+
+		void register(SocketChannel channel) {
+			newChannels.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Runs completion on the thread of this event loop
+		 * 
+		 * @param completion
+		 */
+		void complete(Runnable completion) {
+			completions.add(completion);
+			selector.wakeup();
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		public void run() {
+			while (running) {
+				try {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = newChannels.poll()) != null) {
+						Connection connection = new Connection(this, channel);
+						try {
+							channel.configureBlocking(false);
+							channel.socket().setTcpNoDelay(true);
+							connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+						} catch (IOException e) {
+							connection.close();
+						}
+					}
+					Runnable completion;
+					while ((completion = completions.poll()) != null) {
+						completion.run();
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+						} catch (IOException e) {
+							connection.close();
+						} catch (RuntimeException e) {
+							// e.g. a frame that does not contain a message: only this connection is closed
+							connection.fail(e);
+						}
+					}
+				} catch (IOException e) {
+					lsim.log(Level.ERROR, "[NioServerPartnerSide] [" + getName() + "] " + e.getMessage());
+					e.printStackTrace();
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				((Connection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				/* nothing to do */
+			}
+		}
+	}
+
+	/**
+	 * A TSAE session from a partner server. Accessed by the thread of its event loop, except the session, which is
+	 * only used by the session executor while a message is being processed (processing is true).
+	 * 
+	 * Messages are processed one at a time, in order: while one is being processed no more data is read. Replies are
+	 * encoded one at a time as the previous ones are written, so only a frame is kept in memory.
+	 */
+	private class Connection {
+		private EventLoop loop;
+		private SocketChannel channel;
+		private SelectionKey key;
+
+		private PartnerSession session = new PartnerSession(serverData);
+		private boolean processing = false;
+
+		// each direction has its own codec
+		private ObjectCodec decoder = serverData.getWireFormat().newCodec();
+		private ObjectCodec encoder = serverData.getWireFormat().newCodec(serverData.isOperationCache());
+
+		private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		private LinkedList<Message> pendingReplies = new LinkedList<Message>();
+		// frame being written (null if none)
+		private ByteBuffer pendingWrite = null;
+		private ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		private DataOutputStream payloadOut = new DataOutputStream(payload);
+		private ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		private DataOutputStream frameOut = new DataOutputStream(frame);
+
+		// each direction has its own compression state
+		private Frames inFrames = new Frames();
+		private Frames outFrames = new Frames();
+
+		// true once the session has ended: the connection is closed when all replies are written
+		private boolean closeWhenWritten = false;
+		private boolean closed = false;
+
+		Connection(EventLoop loop, SocketChannel channel) {
+			this.loop = loop;
+			this.channel = channel;
+		}
+
+		/**
+		 * reads the available data and processes the first complete frame
+		 */
+		void read() throws IOException {
+			if (channel.read(readBuffer) < 0) {
+				close();
+				return;
+			}
+			processFrame();
+		}
+
+		/**
+		 * passes the next complete frame read, if any, to the session (unless a previous one is still being processed)
+		 */
+		private void processFrame() throws IOException {
+			readBuffer.flip();
+			try {
+				if (!processing && !closeWhenWritten && readBuffer.remaining() >= 4) {
+					int header = readBuffer.getInt(readBuffer.position());
+					int length = Frames.length(header);
+					if (readBuffer.remaining() >= 4 + length) {
+						int start = readBuffer.arrayOffset() + readBuffer.position() + 4;
+						readBuffer.position(readBuffer.position() + 4 + length);
+						DataInputStream in;
+						if (Frames.isCompressed(header)) {
+							in = new DataInputStream(new ByteArrayInputStream(inFrames.decompress(readBuffer.array(),
+									start, length)));
+						} else {
+							in = new DataInputStream(new ByteArrayInputStream(readBuffer.array(), start, length));
+						}
+						process(decode(in));
+					}
+				}
+			} finally {
+				readBuffer.compact();
+			}
+			if (!readBuffer.hasRemaining()) {
+				// a frame larger than the buffer
+				ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+			updateInterest();
+		}
+
+		private Message decode(DataInputStream in) throws IOException {
+			Object obj;
+			try {
+				obj = decoder.decode(in);
+			} catch (ClassNotFoundException e) {
+				lsim.log(Level.ERROR, "[NioServerPartnerSide] [session: " + session.getSessionNumber() + "] "
+						+ e.getMessage());
+				throw new IOException(e.getMessage());
+			}
+			if (!(obj instanceof Message)) {
+				throw new IOException("Unexpected object received: " + obj);
+			}
+			return (Message) obj;
+		}
+
+		/**
+		 * passes msg to the session on the session executor
+		 */
+		private void process(final Message msg) throws IOException {
+			checkConnected();
+			processing = true;
+			try {
+				serverData.getSessionExecutor().execute(new Runnable() {
+					public void run() {
+						receive(msg);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Runs on the session executor: passes msg to the session and, when the session has ended, applies the
+		 * operations received. The results are handled by the event loop (processed()).
+		 */
+		private void receive(Message msg) {
+			List<Message> replies;
+			boolean ended;
+			boolean reusable = false;
+			boolean compress;
+			try {
+				replies = session.receive(msg);
+				compress = session.compressReplies();
+				ended = session.isEnded();
+				if (ended) {
+					reusable = session.applyOperations();
+				}
+			} catch (final RuntimeException e) {
+				loop.complete(new Runnable() {
+					public void run() {
+						fail(e);
+					}
+				});
+				return;
+			}
+			final List<Message> sessionReplies = replies;
+			final boolean sessionEnded = ended;
+			final boolean sessionReusable = reusable;
+			final boolean compressReplies = compress;
+			loop.complete(new Runnable() {
+				public void run() {
+					try {
+						processed(sessionReplies, compressReplies, sessionEnded, sessionReusable);
+					} catch (IOException e) {
+						close();
+					} catch (RuntimeException e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		private void processed(List<Message> replies, boolean compress, boolean ended, boolean reusable)
+				throws IOException {
+			processing = false;
+			if (closed) {
+				return;
+			}
+			if (compress) {
+				outFrames.enableCompression(serverData.getCompressionThreshold());
+			}
+			pendingReplies.addAll(replies);
+			if (ended) {
+				if (reusable) {
+					// the originator may start another session on this connection (when it pools connections)
+					lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + Thread.currentThread() + "] [session: "
+							+ session.getSessionNumber() + "] End TSAE session");
+					session = new PartnerSession(serverData);
+				} else {
+					closeWhenWritten = true;
+				}
+			}
+			write();
+			if (!closed) {
+				// a frame may have been read while the message was processed
+				processFrame();
+			}
+		}
+
+		private ByteBuffer encode(Message msg) throws IOException {
+			checkConnected();
+			payload.reset();
+			encoder.encode(msg, payloadOut);
+			payloadOut.flush();
+			frame.reset();
+			outFrames.write(frameOut, payload);
+			frameOut.flush();
+			return ByteBuffer.wrap(frame.toByteArray());
+		}
+
+		/**
+		 * writes as much pending data as possible without blocking, encoding the replies as they are needed
+		 */
+		void write() throws IOException {
+			while (true) {
+				if (pendingWrite == null) {
+					if (pendingReplies.isEmpty()) {
+						break;
+					}
+					Message reply = pendingReplies.removeFirst();
+					pendingWrite = encode(reply);
+					lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + Thread.currentThread() + "] [session: "
+							+ reply.getSessionNumber() + "] sent message: " + reply);
+				}
+				channel.write(pendingWrite);
+				if (pendingWrite.hasRemaining()) {
+					updateInterest();
+					return;
+				}
+				pendingWrite = null;
+			}
+			if (closeWhenWritten) {
+				close();
+			} else {
+				updateInterest();
+			}
+		}
+
+		/**
+		 * reads only when no message is being processed, writes while there are replies pending
+		 */
+		private void updateInterest() {
+			if (closed) {
+				return;
+			}
+			int ops = 0;
+			if (pendingWrite != null || !pendingReplies.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			if (!processing && !closeWhenWritten) {
+				ops |= SelectionKey.OP_READ;
+			}
+			key.interestOps(ops);
+		}
+
+		/**
+		 * simulates failures as ObjectInputStream_DS and ObjectOutputStream_DS do
+		 */
+		private void checkConnected() throws IOException {
+			if (!SimulationData.getInstance().isConnected()) {
+				throw new IOException("Trying to use a closed TSAE session");
+			}
+		}
+
+		/**
+		 * closes the connection after an unexpected error
+		 */
+		void fail(RuntimeException e) {
+			lsim.log(Level.ERROR, "[NioServerPartnerSide] [session: " + session.getSessionNumber() + "] " + e);
+			close();
+		}
+
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			inFrames.end();
+			outFrames.end();
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				/* nothing to do */
+			}
+			lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + Thread.currentThread() + "] [session: "
+					+ session.getSessionNumber() + "] End TSAE session");
+		}
+	}
+}
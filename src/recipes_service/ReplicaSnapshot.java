@@ -0,0 +1,54 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service;
+
+import recipes_service.tsae.data_structures.LogSnapshot;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Consistent copy of the summary, the ack and the log of a server, taken at a single point in time. They must not be
+ * modified (they may be shared by several sessions).
+ */
+public class ReplicaSnapshot {
+	private final TimestampVector summary;
+	private final TimestampMatrix ack;
+	private final LogSnapshot log;
+
+	ReplicaSnapshot(TimestampVector summary, TimestampMatrix ack, LogSnapshot log) {
+		this.summary = summary;
+		this.ack = ack;
+		this.log = log;
+	}
+
+	public TimestampVector getSummary() {
+		return summary;
+	}
+
+	public TimestampMatrix getAck() {
+		return ack;
+	}
+
+	public LogSnapshot getLog() {
+		return log;
+	}
+}
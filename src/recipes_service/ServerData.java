@@ -21,9 +21,12 @@
 package recipes_service;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import edu.uoc.dpcs.lsim.LSimFactory;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
@@ -31,15 +34,24 @@ import lsim.worker.LSimWorker;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
 import recipes_service.communication.Hosts;
+import recipes_service.communication.PartnerSelectionStrategy;
+import recipes_service.communication.WireFormat;
 import recipes_service.data.AddOperation;
 import recipes_service.data.Operation;
 import recipes_service.data.Recipe;
 import recipes_service.data.Recipes;
 import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.HostRegistry;
 import recipes_service.tsae.data_structures.Log;
 import recipes_service.tsae.data_structures.Timestamp;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.data_structures.Tombstones;
+import recipes_service.tsae.sessions.AdaptiveSessionScheduler;
+import recipes_service.tsae.sessions.PartnerSelection;
+import recipes_service.tsae.sessions.PropagationQueue;
+import recipes_service.tsae.sessions.SessionExecutors;
+import recipes_service.tsae.sessions.SummaryBaselines;
 import recipes_service.tsae.sessions.TSAESessionOriginatorSide;
 
 /**
@@ -69,6 +81,14 @@ public class ServerData {
 
 	// recipes data structure
 	private Recipes recipes = new Recipes();
+	// updates of the recipes not published yet (null if no batch has been started; see beginRecipesBatch())
+	private Recipes.Batch recipesBatch = null;
+
+	// recipes indexed by the timestamp of their add operation (used to apply remove operations)
+	private Map<Timestamp, Recipe> recipesByTimestamp = new HashMap<Timestamp, Recipe>();
+
+	// tombstones: timestamps of the recipes removed whose add operation has not been received yet
+	private Tombstones tombstones = new Tombstones();
 
 	// number of TSAE sessions
 	int numSes = 1; // number of different partners that a server will contact for a TSAE session each time that TSAE
@@ -77,6 +97,102 @@ public class ServerData {
 	// propDegree: (default value: 0) number of TSAE sessions done each time a new data is created
 	int propDegree = 0;
 
+	// operationBatchSize: (default value: 100) maximum number of operations sent in a single message during a TSAE
+	// session
+	int operationBatchSize = 100;
+
+	// wireFormat: (default value: JAVA) encoding of the messages of TSAE sessions
+	WireFormat wireFormat = WireFormat.JAVA;
+
+	// nioSessionServer: (default value: false) true to serve TSAE sessions from partners with non-blocking sockets
+	boolean nioSessionServer = false;
+
+	// virtualThreads: (default value: false) true to run TSAE sessions on virtual threads (when the JVM supports them)
+	boolean virtualThreads = false;
+
+	// parallelSessions: (default value: false) true to do concurrently the TSAE sessions with the partners of a round
+	boolean parallelSessions = false;
+
+	// sessionRoundTimeout (milliseconds): (default value: 10 seconds) maximum time to wait for the sessions of a round
+	// when they are done concurrently
+	long sessionRoundTimeout = 10000;
+
+	// connectionPooling: (default value: false) true to reuse connections to partners in later TSAE sessions
+	boolean connectionPooling = false;
+
+	// connectionIdleTimeout (milliseconds): (default value: 30 seconds) time after which an idle pooled connection is
+	// closed
+	long connectionIdleTimeout = 30000;
+
+	// fullDuplexSessions: (default value: false) true to do TSAE sessions in which both sides send their operations at
+	// the same time
+	boolean fullDuplexSessions = false;
+
+	// compression: (default value: false) true to compress messages of TSAE sessions when the partner also supports it
+	// (only with the binary wire format)
+	boolean compression = false;
+
+	// compressionThreshold (bytes): (default value: 512) messages smaller than this are not compressed
+	int compressionThreshold = 512;
+
+	// digestHandshake: (default value: false) true to start TSAE sessions exchanging the digests of summary and ack, so
+	// sessions between nodes that have the same ones end without sending them
+	boolean digestHandshake = false;
+
+	// deltaSummaries: (default value: false) true to send in AE requests only the entries of summary and ack changed
+	// since the last ones sent to the partner (only with the binary wire format)
+	boolean deltaSummaries = false;
+
+	// last summary and ack exchanged with each partner (used by delta summaries)
+	private SummaryBaselines summaryBaselines = new SummaryBaselines();
+
+	// asyncPropagation: (default value: false) true to propagate local writes asynchronously, batching the writes made
+	// within a window
+	boolean asyncPropagation = false;
+
+	// propagationWindow (milliseconds): (default value: 100) time during which writes are batched before propagating
+	// them (with asynchronous propagation)
+	long propagationWindow = 100;
+
+	// queue of local writes to propagate (with asynchronous propagation)
+	private PropagationQueue propagationQueue = new PropagationQueue(this);
+
+	// adaptiveSessions: (default value: false) true to adapt the period and the number of partners of the rounds of
+	// TSAE sessions to the operations exchanged in the previous round (see AdaptiveSessionScheduler)
+	boolean adaptiveSessions = false;
+
+	// partnerSelection: (default value: RANDOM) how partners of TSAE sessions are chosen (see PartnerSelection)
+	PartnerSelection partnerSelection = PartnerSelection.RANDOM;
+	private PartnerSelectionStrategy partnerSelectionStrategy = null;
+	private Object partnerSelectionLock = new Object();
+
+	// operationCache: (default value: false) true to encode each operation once and reuse the encoding in all the
+	// sessions that send it (only with the binary wire format)
+	boolean operationCache = false;
+
+	// streamingApply: (default value: false) true to apply the operations received in a TSAE session in batches as
+	// they arrive, instead of all together at the end of the session
+	boolean streamingApply = false;
+
+	// streamingApplyBatch: (default value: 64) number of operations of each batch (with streaming apply)
+	int streamingApplyBatch = 64;
+
+	// applyLoop: (default value: false) true to apply all the updates of the data structures on a single thread (see
+	// ApplyLoop); sessions then read published snapshots instead of taking locks
+	boolean applyLoop = false;
+
+	// applyQueueCapacity: (default value: 1024) maximum number of updates waiting to be applied (with apply loop)
+	int applyQueueCapacity = 1024;
+
+	private ApplyLoop loop = null;
+	private volatile ReplicaSnapshot publishedSnapshot = null;
+	// last snapshot built (not cleared by updates)
+	private volatile ReplicaSnapshot lastSnapshot = null;
+
+	// executor of TSAE sessions (created on first use)
+	private ExecutorService sessionExecutor = null;
+	private Object sessionExecutorLock = new Object();
+
 	// Participating nodes
 	private Hosts participants;
 
@@ -85,16 +201,14 @@ public class ServerData {
 	private long sessionPeriod = 10;
 
 	private Timer tsaeSessionTimer;
+	// used instead of the timer with adaptive sessions
+	private AdaptiveSessionScheduler tsaeScheduler;
 
 	private Object communicationLock = new Object();
 
 	//
 	TSAESessionOriginatorSide tsae = null;
 
-	// TODO: esborrar aquesta estructura de dades
-	// tombstones: timestamp of removed operations
-	List<Timestamp> tombstones = new Vector<Timestamp>();
-
 	// end: true when program should end; false otherwise
 	private boolean end;
 
@@ -109,18 +223,32 @@ public class ServerData {
 	 */
 	public void startTSAE(Hosts participants) {
 		this.participants = participants;
+		HostRegistry.register(participants.getIds());
 		this.log = new Log(participants.getIds());
 		this.summary = new TimestampVector(participants.getIds());
 		this.ack = new TimestampMatrix(participants.getIds());
+		if (applyLoop) {
+			loop = new ApplyLoop(this, applyQueueCapacity);
+			loop.start();
+		}
 
 		// Sets the Timer for TSAE sessions
 		tsae = new TSAESessionOriginatorSide(this);
-		tsaeSessionTimer = new Timer();
-		tsaeSessionTimer.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod);
+		if (adaptiveSessions) {
+			tsaeScheduler = new AdaptiveSessionScheduler(this, tsae);
+			tsaeScheduler.start(sessionDelay, sessionPeriod);
+		} else {
+			tsaeSessionTimer = new Timer();
+			tsaeSessionTimer.scheduleAtFixedRate(tsae, sessionDelay, sessionPeriod);
+		}
 	}
 
 	public void stopTSAEsessions() {
-		this.tsaeSessionTimer.cancel();
+		if (this.tsaeScheduler != null) {
+			this.tsaeScheduler.stop();
+		} else {
+			this.tsaeSessionTimer.cancel();
+		}
 	}
 
 	public boolean end() {
@@ -148,8 +276,20 @@ public class ServerData {
 	// ******************************
 	// *** add and remove recipes
 	// ******************************
-	public synchronized void addRecipe(String recipeTitle, String recipe) {
+	public void addRecipe(final String recipeTitle, final String recipe) {
+		if (loop != null) {
+			loop.execute(new Callable<Void>() {
+				public Void call() {
+					addRecipeLocally(recipeTitle, recipe);
+					return null;
+				}
+			});
+		} else {
+			addRecipeLocally(recipeTitle, recipe);
+		}
+	}
 
+	private synchronized void addRecipeLocally(String recipeTitle, String recipe) {
 		Timestamp timestamp = nextTimestamp();
 		Recipe rcpe = new Recipe(recipeTitle, recipe, groupId, timestamp);
 		Operation op = new AddOperation(rcpe, timestamp);
@@ -157,11 +297,25 @@ public class ServerData {
 		this.log.add(op);
 		this.summary.updateTimestamp(timestamp);
 		this.ack.update(this.id, this.summary);
-		this.recipes.add(rcpe);
+		putRecipe(rcpe);
+		changed();
 	}
 
-	public synchronized void removeRecipe(String recipeTitle) {
-		Recipe recipeToRemove = this.recipes.get(recipeTitle);
+	public void removeRecipe(final String recipeTitle) {
+		if (loop != null) {
+			loop.execute(new Callable<Void>() {
+				public Void call() {
+					removeRecipeLocally(recipeTitle);
+					return null;
+				}
+			});
+		} else {
+			removeRecipeLocally(recipeTitle);
+		}
+	}
+
+	private synchronized void removeRecipeLocally(String recipeTitle) {
+		Recipe recipeToRemove = getRecipe(recipeTitle);
 		if (recipeToRemove != null) {
 			Timestamp timestamp = nextTimestamp();
 
@@ -169,7 +323,8 @@ public class ServerData {
 			this.log.add(op);
 			this.summary.updateTimestamp(timestamp);
 			this.ack.update(this.id, this.summary);
-			this.recipes.remove(recipeTitle);
+			dropRecipe(recipeToRemove);
+			changed();
 		}
 	}
 
@@ -180,65 +335,264 @@ public class ServerData {
 	 * There is a issue with RemoveOperations: we have 3 hosts, one is disconnected. Host B add a recipe, sync with host
 	 * A. Host A remove recipe from host B. Now, Host C connects to group, TSAE Protocol can send first the remove
 	 * operation from A than Add operation from host B. To avoid this problem, verify if we can remove recipe, if we
-	 * cannot remove recipe, we add Timestamp to a list. In add operations we always verify if this List cannot contain
-	 * our Timestamp
+	 * cannot remove recipe, we add its Timestamp to the tombstones. In add operations we always verify if the
+	 * tombstones contain our Timestamp. Tombstones are kept across sessions (see Tombstones)
 	 * 
 	 * @param summary TimestampVector from Partner or Originator in Tsae protocol to update our summary after add
 	 *            opertaions
 	 * @param ack TimestampMatrix from Partner or Originator in Tsae protocol to purge our log
 	 * @param operations Operations to add/remove
 	 */
-	public synchronized void processOperationQueue(int nSession, TimestampVector summary, TimestampMatrix ack,
+	public void processOperationQueue(int nSession, TimestampVector summary, TimestampMatrix ack,
 			List<Operation> operations) {
+		endOperationQueue(nSession, summary, ack, operations);
+	}
+
+	/**
+	 * Adds operations received in a session to the log, the recipes and the summary. Used, to apply them in batches
+	 * as they are received, by sessions with streaming apply.
+	 * 
+	 * @param nSession
+	 * @param operations
+	 */
+	public void applyOperations(final int nSession, final List<Operation> operations) {
+		if (loop != null) {
+			loop.execute(new Callable<Void>() {
+				public Void call() {
+					applyOperationsLocally(nSession, operations);
+					return null;
+				}
+			});
+		} else {
+			synchronized (communicationLock) {
+				applyOperationsLocally(nSession, operations);
+			}
+		}
+	}
+
+	/**
+	 * Ends the processing of the operations of a session: adds the operations not applied yet (see applyOperations()),
+	 * updates the ack and purges the log and the tombstones
+	 * 
+	 * @param nSession
+	 * @param summary summary of the partner
+	 * @param ack ack of the partner
+	 * @param operations operations not applied yet
+	 */
+	public void endOperationQueue(final int nSession, final TimestampVector summary, final TimestampMatrix ack,
+			final List<Operation> operations) {
+		if (loop != null) {
+			loop.execute(new Callable<Void>() {
+				public Void call() {
+					applyOperationsLocally(nSession, operations);
+					endOperationQueueLocally(nSession, summary, ack);
+					return null;
+				}
+			});
+		} else {
+			synchronized (communicationLock) {
+				applyOperationsLocally(nSession, operations);
+				endOperationQueueLocally(nSession, summary, ack);
+			}
+		}
+	}
 
+	private synchronized void applyOperationsLocally(int nSession, List<Operation> operations) {
 		String currentThread = Thread.currentThread().toString();
-		List<Timestamp> recipesToRemove = new ArrayList<Timestamp>();
-		
-		for (Operation operation : operations) {
-			if (getLog().add(operation)) {
-				switch (operation.getType()) {
-				case ADD:
-					Recipe recipe = ((AddOperation) operation).getRecipe();
-					if (!recipesToRemove.contains(recipe.getTimestamp())) {
-						getRecipes().add(recipe);
-					} else {
-						recipesToRemove.remove(recipe.getTimestamp());
-						lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread + "] [session: "
-								+ nSession + "] Cannot add Recipe because it has been removed " + recipe);
+		boolean batch = beginRecipesBatch();
+		try {
+			for (Operation operation : operations) {
+				if (getLog().add(operation)) {
+					switch (operation.getType()) {
+					case ADD:
+						Recipe recipe = ((AddOperation) operation).getRecipe();
+						if (!tombstones.remove(recipe.getTimestamp())) {
+							putRecipe(recipe);
+						} else {
+							lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread
+									+ "] [session: " + nSession + "] Cannot add Recipe because it has been removed "
+									+ recipe);
+						}
+						break;
+					case REMOVE:
+						RemoveOperation removeOperation = ((RemoveOperation) operation);
+
+						Recipe recipeToRemove = recipesByTimestamp.get(removeOperation.getRecipeTimestamp());
+						if (recipeToRemove != null) {
+							dropRecipe(recipeToRemove);
+						} else {
+							lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread
+									+ "] [session: " + nSession + "] Cannot find recipe to remove, sync error? "
+									+ removeOperation);
+							tombstones.add(removeOperation.getRecipeTimestamp());
+						}
+
+						break;
 					}
-					break;
-				case REMOVE:
-					RemoveOperation removeOperation = ((RemoveOperation) operation);
-
-					String recipeTitle = removeOperation.getRecipeTitle();
-					Recipe recipeToRemove = getRecipes().get(recipeTitle);
-					if (recipeToRemove != null
-							&& recipeToRemove.getTimestamp().equals(removeOperation.getRecipeTimestamp())) {
-						getRecipes().remove(recipeTitle); //
-
-					} else {
-						lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread + "] [session: "
-								+ nSession + "] Cannot find recipe to remove, sync error? " + removeOperation);
-						recipesToRemove.add(removeOperation.getRecipeTimestamp());
-					}
-					
-					break;
+					// Only update timestamp if needed
+					this.summary.updateTimestamp(operation.getTimestamp());
+				} else {
+					lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread + "] [session: "
+							+ nSession + "]  cannot add: " + operation);
 				}
-				// Only update timestamp if needed
-				this.summary.updateTimestamp(operation.getTimestamp());
-			} else {
-				lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread + "] [session: " + nSession
-						+ "]  cannot add: " + operation);
+			}
+		} finally {
+			if (batch) {
+				commitRecipesBatch();
 			}
 		}
+		// the ack matrix keeps its own copy of the local summary
+		this.ack.update(this.id, this.summary);
+		changed();
+	}
 
-		if (!recipesToRemove.isEmpty()) {
+	private synchronized void endOperationQueueLocally(int nSession, TimestampVector summary, TimestampMatrix ack) {
+		String currentThread = Thread.currentThread().toString();
+		if (tombstones.size() > 0) {
 			lsim.log(Level.TRACE, "[ServerData.processOperationQueue] [" + currentThread + "] [session: " + nSession
-					+ "] We have not received all operations " + recipesToRemove);
+					+ "] We have not received all operations " + tombstones);
 		}
 		//getSummary().updateMax(summary);
+		// the ack matrix keeps its own copy of the local summary
+		getAck().update(this.id, getSummary());
 		getAck().updateMax(ack);
 		getLog().purgeLog(getAck());
+		tombstones.purge(getAck());
+		changed();
+	}
+
+	/**
+	 * Adds a recipe (replacing the one with the same title, if any) to the recipes and to the index by timestamp
+	 */
+	private void putRecipe(Recipe recipe) {
+		Recipe replaced = getRecipe(recipe.getTitle());
+		if (replaced != null) {
+			recipesByTimestamp.remove(replaced.getTimestamp());
+		}
+		if (recipesBatch != null) {
+			recipesBatch.add(recipe);
+		} else {
+			recipes.add(recipe);
+		}
+		recipesByTimestamp.put(recipe.getTimestamp(), recipe);
+	}
+
+	/**
+	 * Removes a recipe from the recipes and from the index by timestamp
+	 */
+	private void dropRecipe(Recipe recipe) {
+		if (recipesBatch != null) {
+			recipesBatch.remove(recipe.getTitle());
+		} else {
+			recipes.remove(recipe.getTitle());
+		}
+		recipesByTimestamp.remove(recipe.getTimestamp());
+	}
+
+	/**
+	 * @param recipeTitle
+	 * @return the recipe, including the updates of the current batch (if any)
+	 */
+	private Recipe getRecipe(String recipeTitle) {
+		return recipesBatch != null ? recipesBatch.get(recipeTitle) : recipes.get(recipeTitle);
+	}
+
+	/**
+	 * Starts a batch of updates of the recipes, published at once by commitRecipesBatch(). Used to apply the
+	 * operations received in a session and by the apply loop for each batch of commands.
+	 * 
+	 * @return true if the batch has been started, false if there was already one
+	 */
+	synchronized boolean beginRecipesBatch() {
+		if (recipesBatch != null) {
+			return false;
+		}
+		recipesBatch = recipes.batch();
+		return true;
+	}
+
+	/**
+	 * Publishes the updates of the current batch of the recipes (if any)
+	 */
+	synchronized void commitRecipesBatch() {
+		if (recipesBatch != null) {
+			try {
+				recipesBatch.commit();
+			} finally {
+				recipesBatch = null;
+			}
+		}
+	}
+
+	// ******************************
+	// *** snapshots
+	// ******************************
+
+	/**
+	 * With apply loop, returns the last snapshot published, without taking any lock, if there have been no updates
+	 * since; otherwise a new one is built by the apply loop (only when a session needs it, so updates do not pay for
+	 * copying the ack). Without apply loop, copies the summary, the ack and the log holding the communication lock.
+	 * 
+	 * @return consistent copy of the summary, the ack and the log
+	 */
+	public ReplicaSnapshot snapshot() {
+		if (loop != null) {
+			ReplicaSnapshot snapshot = publishedSnapshot;
+			if (snapshot != null) {
+				return snapshot;
+			}
+			return loop.execute(new Callable<ReplicaSnapshot>() {
+				public ReplicaSnapshot call() {
+					return publishSnapshot();
+				}
+			});
+		}
+		synchronized (communicationLock) {
+			return new ReplicaSnapshot(summary.clone(), ack.clone(), log.snapshot());
+		}
+	}
+
+	/**
+	 * Run by the apply loop
+	 * 
+	 * @return the snapshot published, after building a new one if there have been updates since the last one
+	 */
+	private ReplicaSnapshot publishSnapshot() {
+		ReplicaSnapshot snapshot = publishedSnapshot;
+		if (snapshot == null) {
+			snapshot = new ReplicaSnapshot(summary.clone(), ack.clone(), log.snapshot());
+			publishedSnapshot = snapshot;
+			lastSnapshot = snapshot;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * With apply loop, returns the last snapshot built, even if there have been updates since (sessions build a new
+	 * one on demand), so readers that tolerate slightly outdated data, as partner selection, never pay for copying
+	 * the ack. Otherwise, the same as snapshot().
+	 * 
+	 * @return a copy of the summary, the ack and the log, possibly outdated
+	 */
+	public ReplicaSnapshot lastSnapshot() {
+		ReplicaSnapshot snapshot = lastSnapshot;
+		return snapshot != null && loop != null ? snapshot : snapshot();
+	}
+
+	/**
+	 * Called by the apply loop after each batch of updates: publishes the changes of the recipes and marks the
+	 * published snapshot as outdated (a new one is built by the next call to snapshot()).
+	 */
+	void endBatch() {
+		commitRecipesBatch();
+	}
+
+	/**
+	 * Marks the published snapshot (with apply loop) as outdated. Called after each update of the summary, the ack or
+	 * the log.
+	 */
+	private void changed() {
+		publishedSnapshot = null;
 	}
 
 	// ****************************************************************************
@@ -291,6 +645,202 @@ public class ServerData {
 		this.propDegree = propDegree;
 	}
 
+	public int getOperationBatchSize() {
+		return this.operationBatchSize;
+	}
+
+	public void setOperationBatchSize(int operationBatchSize) {
+		this.operationBatchSize = operationBatchSize;
+	}
+
+	public WireFormat getWireFormat() {
+		return this.wireFormat;
+	}
+
+	public void setWireFormat(WireFormat wireFormat) {
+		this.wireFormat = wireFormat;
+	}
+
+	public boolean isNioSessionServer() {
+		return this.nioSessionServer;
+	}
+
+	public void setNioSessionServer(boolean nioSessionServer) {
+		this.nioSessionServer = nioSessionServer;
+	}
+
+	public boolean useVirtualThreads() {
+		return this.virtualThreads;
+	}
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public boolean isParallelSessions() {
+		return this.parallelSessions;
+	}
+
+	public void setParallelSessions(boolean parallelSessions) {
+		this.parallelSessions = parallelSessions;
+	}
+
+	public long getSessionRoundTimeout() {
+		return this.sessionRoundTimeout;
+	}
+
+	public void setSessionRoundTimeout(long sessionRoundTimeout) {
+		this.sessionRoundTimeout = sessionRoundTimeout;
+	}
+
+	public boolean isConnectionPooling() {
+		return this.connectionPooling;
+	}
+
+	public void setConnectionPooling(boolean connectionPooling) {
+		this.connectionPooling = connectionPooling;
+	}
+
+	public long getConnectionIdleTimeout() {
+		return this.connectionIdleTimeout;
+	}
+
+	public void setConnectionIdleTimeout(long connectionIdleTimeout) {
+		this.connectionIdleTimeout = connectionIdleTimeout;
+	}
+
+	public boolean isFullDuplexSessions() {
+		return this.fullDuplexSessions;
+	}
+
+	public void setFullDuplexSessions(boolean fullDuplexSessions) {
+		this.fullDuplexSessions = fullDuplexSessions;
+	}
+
+	public boolean isCompression() {
+		return this.compression;
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	public int getCompressionThreshold() {
+		return this.compressionThreshold;
+	}
+
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public boolean isDigestHandshake() {
+		return this.digestHandshake;
+	}
+
+	public void setDigestHandshake(boolean digestHandshake) {
+		this.digestHandshake = digestHandshake;
+	}
+
+	public boolean isDeltaSummaries() {
+		return this.deltaSummaries;
+	}
+
+	public void setDeltaSummaries(boolean deltaSummaries) {
+		this.deltaSummaries = deltaSummaries;
+	}
+
+	public SummaryBaselines getSummaryBaselines() {
+		return this.summaryBaselines;
+	}
+
+	public boolean isAsyncPropagation() {
+		return this.asyncPropagation;
+	}
+
+	public void setAsyncPropagation(boolean asyncPropagation) {
+		this.asyncPropagation = asyncPropagation;
+	}
+
+	public long getPropagationWindow() {
+		return this.propagationWindow;
+	}
+
+	public void setPropagationWindow(long propagationWindow) {
+		this.propagationWindow = propagationWindow;
+	}
+
+	public PropagationQueue getPropagationQueue() {
+		return this.propagationQueue;
+	}
+
+	public boolean isAdaptiveSessions() {
+		return this.adaptiveSessions;
+	}
+
+	public void setAdaptiveSessions(boolean adaptiveSessions) {
+		this.adaptiveSessions = adaptiveSessions;
+	}
+
+	public PartnerSelection getPartnerSelection() {
+		return this.partnerSelection;
+	}
+
+	public void setPartnerSelection(PartnerSelection partnerSelection) {
+		this.partnerSelection = partnerSelection;
+	}
+
+	public boolean isOperationCache() {
+		return this.operationCache;
+	}
+
+	public void setOperationCache(boolean operationCache) {
+		this.operationCache = operationCache;
+	}
+
+	public boolean isStreamingApply() {
+		return this.streamingApply;
+	}
+
+	public void setStreamingApply(boolean streamingApply) {
+		this.streamingApply = streamingApply;
+	}
+
+	public int getStreamingApplyBatch() {
+		return this.streamingApplyBatch;
+	}
+
+	public void setStreamingApplyBatch(int streamingApplyBatch) {
+		this.streamingApplyBatch = streamingApplyBatch;
+	}
+
+	public boolean isApplyLoop() {
+		return this.applyLoop;
+	}
+
+	public void setApplyLoop(boolean applyLoop) {
+		this.applyLoop = applyLoop;
+	}
+
+	public int getApplyQueueCapacity() {
+		return this.applyQueueCapacity;
+	}
+
+	public void setApplyQueueCapacity(int applyQueueCapacity) {
+		this.applyQueueCapacity = applyQueueCapacity;
+	}
+
+	/**
+	 * @return the executor that runs TSAE sessions (both from partners and, with virtual threads, the local ones)
+	 */
+	public ExecutorService getSessionExecutor() {
+		synchronized (sessionExecutorLock) {
+			if (sessionExecutor == null) {
+				sessionExecutor = SessionExecutors.newExecutor(virtualThreads, "TSAESessionThread");
+			}
+			return sessionExecutor;
+		}
+	}
+
 	public void setSessionDelay(long sessionDelay) {
 		this.sessionDelay = sessionDelay;
 	}
@@ -299,6 +849,10 @@ public class ServerData {
 		this.sessionPeriod = sessionPeriod;
 	}
 
+	public long getSessionPeriod() {
+		return this.sessionPeriod;
+	}
+
 	public TSAESessionOriginatorSide getTSAESessionOriginatorSide() {
 		return this.tsae;
 	}
@@ -308,7 +862,14 @@ public class ServerData {
 	// ******************************
 
 	public List<Host> getRandomPartners(int num) {
-		return participants.getRandomPartners(num);
+		synchronized (partnerSelectionLock) {
+			if (partnerSelectionStrategy == null) {
+				partnerSelectionStrategy = partnerSelection.newStrategy(this);
+			}
+		}
+		List<Host> selected = new ArrayList<Host>(Math.max(0, num));
+		partnerSelectionStrategy.select(participants.getPartners(), num, selected);
+		return selected;
 	}
 
 	/**
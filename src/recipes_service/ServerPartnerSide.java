@@ -27,6 +27,7 @@ import java.net.ServerSocket;
 
 import edu.uoc.dpcs.lsim.LSimFactory;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+import recipes_service.communication.WireFormat;
 import recipes_service.tsae.sessions.TSAESessionPartnerSide;
 
 /**
@@ -36,9 +37,9 @@ import recipes_service.tsae.sessions.TSAESessionPartnerSide;
  */
 public class ServerPartnerSide  extends Thread{
 	private int port;
-	private ServerData serverData = null;
+	ServerData serverData = null;
 	
-	private ServerSocket serverSocket = null;
+	ServerSocket serverSocket = null;
 
 	boolean servicePublished = false;
 
@@ -47,6 +48,27 @@ public class ServerPartnerSide  extends Thread{
 		this.port = port;
 		this.serverData = serverData;
 	}
+
+	/**
+	 * Creates the server for TSAE sessions configured in serverData: a NioServerPartnerSide when serverData requires
+	 * it (and the wire format allows it) or a thread-per-session ServerPartnerSide otherwise.
+	 * 
+	 * @param port
+	 * @param serverData
+	 * @return the (not started) server
+	 */
+	public static ServerPartnerSide create(int port, ServerData serverData) {
+		if (serverData.isNioSessionServer()) {
+			if (serverData.getWireFormat() == WireFormat.BINARY) {
+				return new NioServerPartnerSide(port, serverData);
+			}
+			LSimFactory.getWorkerInstance().log(Level.WARN,
+					"[ServerPartnerSide] non-blocking session server requires wireFormat=binary:"
+					+ " using one thread per TSAE session");
+		}
+		return new ServerPartnerSide(port, serverData);
+	}
+
 	public void run() {
 
 		servicePublished = false;
@@ -64,8 +86,23 @@ public class ServerPartnerSide  extends Thread{
 		// waits until the Server is ready to receive TSAE sessions from partner servers
 		serverData.waitServerConnected();
 		
-		// accept remote TSAE connections
-		// starts a new thread for each TSAE sessions from a partner server 
+		serve();
+		
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			LSimFactory.getWorkerInstance().log(Level.ERROR,
+					e.getMessage()
+					);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * accept remote TSAE connections until the server ends
+	 */
+	protected void serve(){
+		// runs each TSAE sessions from a partner server in the session executor of serverData
 
 		while (!serverData.end()){
 			try {
@@ -74,7 +111,7 @@ public class ServerPartnerSide  extends Thread{
 				// if server should stop it will close and finish.
 				// In other case it will block again. 
 				serverSocket.setSoTimeout(20000);
-				new TSAESessionPartnerSide(serverSocket.accept(), this.serverData).start();
+				serverData.getSessionExecutor().execute(new TSAESessionPartnerSide(serverSocket.accept(), this.serverData));
 			} catch (java.net.SocketTimeoutException e){
 				;
 			}catch (IOException e1) {
@@ -85,15 +122,6 @@ public class ServerPartnerSide  extends Thread{
 				e1.printStackTrace();
 			}
 		}
-		
-		try {
-			serverSocket.close();
-		} catch (IOException e) {
-			LSimFactory.getWorkerInstance().log(Level.ERROR,
-					e.getMessage()
-					);
-			e.printStackTrace();
-		}
 	}
 	
 	public int getPort(){
@@ -118,6 +146,14 @@ public class ServerPartnerSide  extends Thread{
 	 * Auxiliary functions
 	 */
 
+	/**
+	 * @return a new unbound server socket
+	 * @throws IOException
+	 */
+	protected ServerSocket openServerSocket() throws IOException {
+		return new ServerSocket();
+	}
+
 	public boolean servicePublished(int port) {
 		// check if port is used by a UDP service
 		DatagramSocket ds = null;
@@ -138,7 +174,7 @@ public class ServerPartnerSide  extends Thread{
 		// starts a thread to deal with TSAE sessions from partner servers 
 
 		try {
-			serverSocket = new ServerSocket();
+			serverSocket = openServerSocket();
 			serverSocket.setReuseAddress(true);
 			serverSocket.bind(new InetSocketAddress(port));
 //			serverSocket = new ServerSocket(port);
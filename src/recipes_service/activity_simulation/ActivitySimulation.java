@@ -81,7 +81,7 @@ public class ActivitySimulation extends TimerTask{
 				lsim.log(Level.INFO, "["+serverData.getId()+"] ADD recipe: "+String.valueOf(chars));
 
 				serverData.addRecipe(String.valueOf(chars), "Content--"+String.valueOf(chars));
-				serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+				propagate();
 			}			
 			//probability of deleting a recipe
 			if(simulationData.deletionActivated()
@@ -93,7 +93,7 @@ public class ActivitySimulation extends TimerTask{
 					System.out.println("["+serverData.getId()+"] REMOVE recipe: "+recipeTitle);
 					lsim.log(Level.INFO, "["+serverData.getId()+"] REMOVE recipe: "+recipeTitle);
 					serverData.removeRecipe(recipeTitle);
-					serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+					propagate();
 				}				
 			}
 
@@ -106,4 +106,16 @@ public class ActivitySimulation extends TimerTask{
 			}
 		}
 	}
+
+	/**
+	 * Propagates a local write to propagationDegree partners: asynchronously, together with the other writes of a
+	 * short window, when asynchronous propagation is enabled; otherwise, by doing the sessions right now
+	 */
+	private void propagate(){
+		if (serverData.isAsyncPropagation()){
+			serverData.getPropagationQueue().add();
+		} else {
+			serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+		}
+	}
 }
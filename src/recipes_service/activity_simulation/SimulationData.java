@@ -22,7 +22,9 @@ package recipes_service.activity_simulation;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.List;
 import java.util.Timer;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import edu.uoc.dpcs.lsim.LSimFactory;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
@@ -47,6 +49,7 @@ public class SimulationData {
 	private int executionStop; // duration of convergence phase (TSAE sessions. Disconnected nodes won't reconnect)
 	
 	private boolean connected = false;
+	private List<Runnable> disconnectionListeners = new CopyOnWriteArrayList<Runnable>();
 	private boolean deletion=false;
 
 	// Activity simulation
@@ -172,6 +175,16 @@ public class SimulationData {
 
 	public void disconnect() {
 		this.connected = false;
+		for (Runnable listener : disconnectionListeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @param listener to be run each time the server gets disconnected
+	 */
+	public void addDisconnectionListener(Runnable listener) {
+		disconnectionListeners.add(listener);
 	}
 
 	public boolean deletionActivated() {
@@ -20,8 +20,9 @@
 
 package recipes_service.communication;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
 import java.util.Vector;
 
 
@@ -37,18 +38,25 @@ public class Hosts {
 	
 	private List<String> listIds;
 
-	static Random rnd = new Random();
+	// nodes except localNode
+	private List<Host> partners;
+
+	private static PartnerSelectionStrategy randomSelection = new RandomPartnerSelection();
 
 	public Hosts(Host localNode){
 		this.nodes = new Vector<Host>();
 		this.localNode = localNode;
 		
 		this.listIds = new Vector<String>();
+		this.partners = new Vector<Host>();
 	}
 
 	public void add(Host node){
 		this.nodes.add(node);
 		this.listIds.add(node.getId());
+		if (!node.equals(localNode)){
+			this.partners.add(node);
+		}
 	}
 	
 	public int size(){
@@ -60,26 +68,16 @@ public class Hosts {
 	 * @return
 	 */
 	public List<Host> getRandomPartners(int num){
-		List<Host> v = new Vector<Host>();
-
-		if (nodes.size() == 1 || num < 1){
-			return v;
-		}
-
-		num = Math.min(num, nodes.size()-1);
-
-		@SuppressWarnings("unchecked")
-		List<Host> auxNodes=(Vector<Host>)((Vector<Host>) nodes).clone();
-
-		auxNodes.remove(localNode);
+		List<Host> selected = new ArrayList<Host>(Math.max(0, num));
+		randomSelection.select(getPartners(), num, selected);
+		return selected;
+	}
 
-		int n;
-		while(v.size()<num){
-			n= (((int)(rnd.nextDouble() *10000))%auxNodes.size());
-			v.add(auxNodes.get(n));
-			auxNodes.remove(n);
-		}
-		return v;		
+	/**
+	 * @return the nodes except the local one (a read-only view)
+	 */
+	public List<Host> getPartners(){
+		return Collections.unmodifiableList(partners);
 	}
 
 	public List<String> getIds(){
@@ -34,11 +34,31 @@ public class MessageAErequest extends Message implements Serializable{
 	private static final long serialVersionUID = 3626351664901270873L;
 	private TimestampVector summary;
 	private TimestampMatrix ack;
+	// full-duplex session (requested by the originator): both sides send their summary and ack first and then their
+	// operations at the same time
+	private boolean fullDuplex = false;
+	// the sender supports (and wants to use) compressed frames
+	private boolean compression = false;
+	// delta summaries (see SummaryBaselines): id of the sender and digest of the last summary and ack it received
+	// from the receiver (null if none)
+	private String senderId = null;
+	private Long baselineDigest = null;
+	// summary and ack only have the entries changed since a baseline held by the receiver; digest of the baseline
+	// and digests of the complete ones
+	private boolean delta = false;
+	private long deltaBase;
+	private long summaryDigest;
+	private long ackDigest;
 
 	public MessageAErequest (TimestampVector summary, TimestampMatrix ack){
 		this.summary = summary;
 		this.ack = ack;
 	}
+
+	public MessageAErequest (TimestampVector summary, TimestampMatrix ack, boolean fullDuplex){
+		this(summary, ack);
+		this.fullDuplex = fullDuplex;
+	}
 	
 	public TimestampVector getSummary(){
 		return this.summary;
@@ -46,6 +66,63 @@ public class MessageAErequest extends Message implements Serializable{
 	public TimestampMatrix getAck(){
 		return this.ack;
 	}
+	public boolean isFullDuplex(){
+		return this.fullDuplex;
+	}
+	public boolean isCompression(){
+		return this.compression;
+	}
+	public void setCompression(boolean compression){
+		this.compression = compression;
+	}
+	public String getSenderId(){
+		return this.senderId;
+	}
+	public Long getBaselineDigest(){
+		return this.baselineDigest;
+	}
+	public void setSender(String senderId, Long baselineDigest){
+		this.senderId = senderId;
+		this.baselineDigest = baselineDigest;
+	}
+	public boolean isDelta(){
+		return this.delta;
+	}
+	public long getDeltaBase(){
+		return this.deltaBase;
+	}
+	public long getSummaryDigest(){
+		return this.summaryDigest;
+	}
+	public long getAckDigest(){
+		return this.ackDigest;
+	}
+
+	/**
+	 * Marks summary and ack as deltas
+	 * 
+	 * @param deltaBase digest of the baseline the deltas are relative to
+	 * @param summaryDigest digest of the complete summary
+	 * @param ackDigest digest of the complete ack
+	 */
+	public void setDelta(long deltaBase, long summaryDigest, long ackDigest){
+		this.delta = true;
+		this.deltaBase = deltaBase;
+		this.summaryDigest = summaryDigest;
+		this.ackDigest = ackDigest;
+	}
+
+	/**
+	 * Replaces the deltas by the complete summary and ack
+	 * 
+	 * @param summary
+	 * @param ack
+	 */
+	public void resolveDelta(TimestampVector summary, TimestampMatrix ack){
+		this.summary = summary;
+		this.ack = ack;
+		this.delta = false;
+	}
 	
 	public MsgType type(){
 		return MsgType.AE_REQUEST;
@@ -53,7 +130,7 @@ public class MessageAErequest extends Message implements Serializable{
 	
 	@Override
 	public String toString() {
-		 String str = "MessageAErequest [session: "+getSessionNumber()+", summary=" + summary;
+		 String str = "MessageAErequest [session: "+getSessionNumber()+", fullDuplex="+fullDuplex+", compression="+compression+", sender="+senderId+", delta="+delta+", summary=" + summary;
 		 if (ack != null){
 			 str += ", ack=" + ack;
 		 }
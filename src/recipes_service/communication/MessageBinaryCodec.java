@@ -0,0 +1,355 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import communication.ObjectCodec;
+import recipes_service.data.AddOperation;
+import recipes_service.data.Operation;
+import recipes_service.data.Recipe;
+import recipes_service.data.RemoveOperation;
+import recipes_service.tsae.data_structures.HostIdDictionary;
+import recipes_service.tsae.data_structures.Timestamp;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+import util.BinaryCoding;
+
+/**
+ * Binary encoding of the messages of a TSAE session: a tag with the type of message, the session number and the
+ * fields of the message. Sequence numbers are written as variable-length integers, strings are prefixed by their
+ * length and host ids are replaced by codes of a dictionary kept by the stream (see HostIdDictionary). Objects
+ * that are not TSAE messages are written using Java serialization.
+ * 
+ * Optionally, the encoding of each operation is cached in the operation the first time it is sent, with literal host
+ * ids so it does not depend on the stream, and later sends (to any partner) only copy it.
+ * 
+ * Each stream must use its own instance.
+ */
+public class MessageBinaryCodec implements ObjectCodec {
+	// message tags
+	private static final int AE_REQUEST = 1;
+	private static final int OPERATION = 2;
+	private static final int OPERATION_BATCH = 3;
+	private static final int END_TSAE = 4;
+	private static final int DIGEST = 5;
+	private static final int RESEND_SUMMARY = 6;
+	private static final int SERIALIZED = 127;
+
+	// operation tags
+	private static final int ADD = 1;
+	private static final int REMOVE = 2;
+	// followed by an operation encoded with literal host ids (cached encoding)
+	private static final int ENCODED = 3;
+
+	// flags of an AE request
+	private static final int FULL_DUPLEX = 1;
+	private static final int COMPRESSION = 2;
+	private static final int SENDER = 4;
+	private static final int BASELINE = 8;
+	private static final int DELTA = 16;
+
+	// flags of an add operation
+	private static final int RECIPE_TIMESTAMP_IS_OPERATION_TIMESTAMP = 1;
+	// flags of a remove operation
+	private static final int NULL_RECIPE_TIMESTAMP = 1;
+
+	private HostIdDictionary hostids = new HostIdDictionary();
+
+	// true to cache the encoding of operations (see Operation.getEncoding())
+	private boolean cacheOperations;
+
+	public MessageBinaryCodec() {
+		this(false);
+	}
+
+	/**
+	 * @param cacheOperations true to encode each operation once, with literal host ids (instead of the codes of the
+	 *            dictionary of the stream) so the encoding can be reused by any stream, and cache it in the operation
+	 */
+	public MessageBinaryCodec(boolean cacheOperations) {
+		this.cacheOperations = cacheOperations;
+	}
+
+	@Override
+	public void encode(Object obj, DataOutput out) throws IOException {
+		if (!(obj instanceof Message)) {
+			writeSerialized(obj, out);
+			return;
+		}
+		Message msg = (Message) obj;
+		switch (msg.type()) {
+		case AE_REQUEST:
+			MessageAErequest aeRequest = (MessageAErequest) msg;
+			out.writeByte(AE_REQUEST);
+			BinaryCoding.writeSignedVarLong(out, msg.getSessionNumber());
+			out.writeByte((aeRequest.isFullDuplex() ? FULL_DUPLEX : 0) | (aeRequest.isCompression() ? COMPRESSION : 0)
+					| (aeRequest.getSenderId() != null ? SENDER : 0)
+					| (aeRequest.getBaselineDigest() != null ? BASELINE : 0) | (aeRequest.isDelta() ? DELTA : 0));
+			if (aeRequest.getSenderId() != null) {
+				BinaryCoding.writeString(out, aeRequest.getSenderId());
+			}
+			if (aeRequest.getBaselineDigest() != null) {
+				out.writeLong(aeRequest.getBaselineDigest());
+			}
+			if (aeRequest.isDelta()) {
+				out.writeLong(aeRequest.getDeltaBase());
+				out.writeLong(aeRequest.getSummaryDigest());
+				out.writeLong(aeRequest.getAckDigest());
+			}
+			writeSummary(aeRequest.getSummary(), out);
+			writeAck(aeRequest.getAck(), out);
+			break;
+		case OPERATION:
+			out.writeByte(OPERATION);
+			BinaryCoding.writeSignedVarLong(out, msg.getSessionNumber());
+			writeOperation(((MessageOperation) msg).getOperation(), out);
+			break;
+		case OPERATION_BATCH:
+			List<Operation> operations = ((MessageOperationBatch) msg).getOperations();
+			out.writeByte(OPERATION_BATCH);
+			BinaryCoding.writeSignedVarLong(out, msg.getSessionNumber());
+			BinaryCoding.writeVarInt(out, operations.size());
+			for (Operation op : operations) {
+				writeOperation(op, out);
+			}
+			break;
+		case END_TSAE:
+			out.writeByte(END_TSAE);
+			BinaryCoding.writeSignedVarLong(out, msg.getSessionNumber());
+			break;
+		case DIGEST:
+			MessageDigest digest = (MessageDigest) msg;
+			out.writeByte(DIGEST);
+			BinaryCoding.writeSignedVarLong(out, msg.getSessionNumber());
+			out.writeLong(digest.getSummaryDigest());
+			out.writeLong(digest.getAckDigest());
+			break;
+		case RESEND_SUMMARY:
+			out.writeByte(RESEND_SUMMARY);
+			BinaryCoding.writeSignedVarLong(out, msg.getSessionNumber());
+			break;
+		default:
+			writeSerialized(obj, out);
+		}
+	}
+
+	@Override
+	public Object decode(DataInput in) throws IOException, ClassNotFoundException {
+		int tag = in.readUnsignedByte();
+		if (tag == SERIALIZED) {
+			return readSerialized(in);
+		}
+		int sessionNumber = (int) BinaryCoding.readSignedVarLong(in);
+		Message msg;
+		switch (tag) {
+		case AE_REQUEST:
+			int flags = in.readUnsignedByte();
+			String senderId = (flags & SENDER) != 0 ? BinaryCoding.readString(in) : null;
+			Long baselineDigest = (flags & BASELINE) != 0 ? in.readLong() : null;
+			long deltaBase = 0;
+			long summaryDigest = 0;
+			long ackDigest = 0;
+			if ((flags & DELTA) != 0) {
+				deltaBase = in.readLong();
+				summaryDigest = in.readLong();
+				ackDigest = in.readLong();
+			}
+			TimestampVector summary = readSummary(in);
+			TimestampMatrix ack = readAck(in);
+			MessageAErequest aeRequest = new MessageAErequest(summary, ack, (flags & FULL_DUPLEX) != 0);
+			aeRequest.setCompression((flags & COMPRESSION) != 0);
+			aeRequest.setSender(senderId, baselineDigest);
+			if ((flags & DELTA) != 0) {
+				aeRequest.setDelta(deltaBase, summaryDigest, ackDigest);
+			}
+			msg = aeRequest;
+			break;
+		case OPERATION:
+			msg = new MessageOperation(readOperation(in));
+			break;
+		case OPERATION_BATCH:
+			int size = BinaryCoding.readLength(in);
+			List<Operation> operations = new ArrayList<Operation>(size);
+			for (int i = 0; i < size; i++) {
+				operations.add(readOperation(in));
+			}
+			msg = new MessageOperationBatch(operations);
+			break;
+		case END_TSAE:
+			msg = new MessageEndTSAE();
+			break;
+		case DIGEST:
+			msg = new MessageDigest(in.readLong(), in.readLong());
+			break;
+		case RESEND_SUMMARY:
+			msg = new MessageResendSummary();
+			break;
+		default:
+			throw new IOException("Unknown message tag: " + tag);
+		}
+		msg.setSessionNumber(sessionNumber);
+		return msg;
+	}
+
+	private void writeSummary(TimestampVector summary, DataOutput out) throws IOException {
+		out.writeBoolean(summary != null);
+		if (summary != null) {
+			summary.writeTo(out, hostids);
+		}
+	}
+
+	private TimestampVector readSummary(DataInput in) throws IOException {
+		return in.readBoolean() ? TimestampVector.readFrom(in, hostids) : null;
+	}
+
+	private void writeAck(TimestampMatrix ack, DataOutput out) throws IOException {
+		out.writeBoolean(ack != null);
+		if (ack != null) {
+			ack.writeTo(out, hostids);
+		}
+	}
+
+	private TimestampMatrix readAck(DataInput in) throws IOException {
+		return in.readBoolean() ? TimestampMatrix.readFrom(in, hostids) : null;
+	}
+
+	private void writeOperation(Operation op, DataOutput out) throws IOException {
+		if (!cacheOperations) {
+			writeOperation(op, out, hostids);
+			return;
+		}
+		byte[] encoding = op.getEncoding();
+		if (encoding == null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			writeOperation(op, new DataOutputStream(bytes), HostIdDictionary.LITERAL);
+			encoding = bytes.toByteArray();
+			op.setEncoding(encoding);
+		}
+		out.writeByte(ENCODED);
+		out.write(encoding);
+	}
+
+	private void writeOperation(Operation op, DataOutput out, HostIdDictionary hostids) throws IOException {
+		switch (op.getType()) {
+		case ADD:
+			Recipe recipe = ((AddOperation) op).getRecipe();
+			boolean sameTimestamp = op.getTimestamp().equals(recipe.getTimestamp());
+			out.writeByte(ADD);
+			out.writeByte(sameTimestamp ? RECIPE_TIMESTAMP_IS_OPERATION_TIMESTAMP : 0);
+			op.getTimestamp().writeTo(out, hostids);
+			BinaryCoding.writeString(out, recipe.getTitle());
+			BinaryCoding.writeString(out, recipe.getRecipe());
+			BinaryCoding.writeString(out, recipe.getAuthor());
+			if (!sameTimestamp) {
+				writeNullableTimestamp(recipe.getTimestamp(), out, hostids);
+			}
+			break;
+		case REMOVE:
+			RemoveOperation removeOperation = (RemoveOperation) op;
+			Timestamp recipeTimestamp = removeOperation.getRecipeTimestamp();
+			out.writeByte(REMOVE);
+			out.writeByte(recipeTimestamp == null ? NULL_RECIPE_TIMESTAMP : 0);
+			op.getTimestamp().writeTo(out, hostids);
+			BinaryCoding.writeString(out, removeOperation.getRecipeTitle());
+			if (recipeTimestamp != null) {
+				recipeTimestamp.writeTo(out, hostids);
+			}
+			break;
+		}
+	}
+
+	private Operation readOperation(DataInput in) throws IOException {
+		return readOperation(in, hostids);
+	}
+
+	private Operation readOperation(DataInput in, HostIdDictionary hostids) throws IOException {
+		int tag = in.readUnsignedByte();
+		if (tag == ENCODED) {
+			return readOperation(in, HostIdDictionary.LITERAL);
+		}
+		int flags = in.readUnsignedByte();
+		Timestamp timestamp = Timestamp.readFrom(in, hostids);
+		switch (tag) {
+		case ADD:
+			String title = BinaryCoding.readString(in);
+			String recipe = BinaryCoding.readString(in);
+			String author = BinaryCoding.readString(in);
+			Timestamp recipeTimestamp = timestamp;
+			if ((flags & RECIPE_TIMESTAMP_IS_OPERATION_TIMESTAMP) == 0) {
+				recipeTimestamp = readNullableTimestamp(in, hostids);
+			}
+			return new AddOperation(new Recipe(title, recipe, author, recipeTimestamp), timestamp);
+		case REMOVE:
+			String recipeTitle = BinaryCoding.readString(in);
+			Timestamp removedTimestamp = null;
+			if ((flags & NULL_RECIPE_TIMESTAMP) == 0) {
+				removedTimestamp = Timestamp.readFrom(in, hostids);
+			}
+			return new RemoveOperation(recipeTitle, removedTimestamp, timestamp);
+		default:
+			throw new IOException("Unknown operation tag: " + tag);
+		}
+	}
+
+	private void writeNullableTimestamp(Timestamp timestamp, DataOutput out, HostIdDictionary hostids)
+			throws IOException {
+		out.writeBoolean(timestamp != null);
+		if (timestamp != null) {
+			timestamp.writeTo(out, hostids);
+		}
+	}
+
+	private Timestamp readNullableTimestamp(DataInput in, HostIdDictionary hostids) throws IOException {
+		return in.readBoolean() ? Timestamp.readFrom(in, hostids) : null;
+	}
+
+	private void writeSerialized(Object obj, DataOutput out) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+		objectOut.writeObject(obj);
+		objectOut.close();
+		out.writeByte(SERIALIZED);
+		BinaryCoding.writeVarInt(out, bytes.size());
+		out.write(bytes.toByteArray());
+	}
+
+	private Object readSerialized(DataInput in) throws IOException, ClassNotFoundException {
+		byte[] bytes = new byte[BinaryCoding.readLength(in)];
+		in.readFully(bytes);
+		ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return objectIn.readObject();
+		} finally {
+			objectIn.close();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+
+/**
+ * Digests of the summary and the ack of a node. Sent at the beginning of a TSAE session: when the digests of both
+ * sides are equal there is nothing to exchange and the session ends.
+ */
+public class MessageDigest extends Message{
+
+	private static final long serialVersionUID = 4318470231946318127L;
+	private long summaryDigest;
+	private long ackDigest;
+
+	public MessageDigest (long summaryDigest, long ackDigest){
+		this.summaryDigest = summaryDigest;
+		this.ackDigest = ackDigest;
+	}
+
+	public long getSummaryDigest(){
+		return this.summaryDigest;
+	}
+	public long getAckDigest(){
+		return this.ackDigest;
+	}
+
+	/**
+	 * @param other
+	 * @return true if other has the same digests (summary and ack are the same with a very high probability)
+	 */
+	public boolean matches(MessageDigest other){
+		return summaryDigest == other.summaryDigest && ackDigest == other.ackDigest;
+	}
+
+	public MsgType type(){
+		return MsgType.DIGEST;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageDigest [session: "+getSessionNumber()+", summaryDigest="+Long.toHexString(summaryDigest)+", ackDigest="+Long.toHexString(ackDigest)+"]";
+	}
+}
@@ -0,0 +1,43 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+
+/**
+ * Reply to an AE request whose deltas could not be rebuilt into the complete summary and ack (see
+ * SummaryBaselines): asks its sender to send them complete, without ending the TSAE session.
+ */
+public class MessageResendSummary extends Message{
+
+	private static final long serialVersionUID = -5270941566105928131L;
+
+	public MessageResendSummary (){
+	}
+
+	public MsgType type(){
+		return MsgType.RESEND_SUMMARY;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageResendSummary [session: "+getSessionNumber()+"]";
+	}
+}
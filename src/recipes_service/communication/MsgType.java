@@ -26,5 +26,5 @@ package recipes_service.communication;
  *
  */
 public enum MsgType {
-	AE_REQUEST, OPERATION, END_TSAE
+	AE_REQUEST, OPERATION, OPERATION_BATCH, END_TSAE, DIGEST, RESEND_SUMMARY
 }
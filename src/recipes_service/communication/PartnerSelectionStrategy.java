@@ -0,0 +1,39 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.util.List;
+
+/**
+ * Chooses the partners of a round of TSAE sessions
+ */
+public interface PartnerSelectionStrategy {
+
+	/**
+	 * Adds to selected min(num, partners.size()) different partners, in the order in which sessions should be done.
+	 * Implementations reuse their scratch buffers, so nothing else is allocated.
+	 * 
+	 * @param partners candidates (not modified)
+	 * @param num
+	 * @param selected list to which the partners are added
+	 */
+	void select(List<Host> partners, int num, List<Host> selected);
+}
@@ -0,0 +1,56 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.communication;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chooses partners uniformly at random, in random order, with the first num steps of a Fisher-Yates shuffle of a
+ * permutation of the positions of the candidates. The permutation is kept between calls (any permutation is a valid
+ * starting point), so each call takes O(num) time and allocates nothing.
+ */
+public class RandomPartnerSelection implements PartnerSelectionStrategy {
+
+	private Random rnd = new Random();
+
+	// permutation of the positions of the candidates (rebuilt when their number changes)
+	private int[] order = new int[0];
+
+	@Override
+	public synchronized void select(List<Host> partners, int num, List<Host> selected) {
+		int size = partners.size();
+		num = Math.max(0, Math.min(num, size));
+		if (order.length != size) {
+			order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+		}
+		for (int i = 0; i < num; i++) {
+			int j = i + rnd.nextInt(size - i);
+			int position = order[j];
+			order[j] = order[i];
+			order[i] = position;
+			selected.add(partners.get(position));
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.communication;
+
+import communication.ObjectCodec;
+
+/**
+ * Encoding of the messages exchanged during TSAE sessions. All servers of a group must use the same one.
+ * 
+ * JAVA: Java serialization (default). BINARY: length-prefixed frames encoded with MessageBinaryCodec.
+ */
+public enum WireFormat {
+	JAVA, BINARY;
+
+	/**
+	 * @return a new codec for a stream (one for each stream), or null for Java serialization
+	 */
+	public ObjectCodec newCodec() {
+		return newCodec(false);
+	}
+
+	/**
+	 * @param cacheOperations true to cache the encoding of the operations written (only with BINARY)
+	 * @return a new codec for a stream (one for each stream), or null for Java serialization
+	 */
+	public ObjectCodec newCodec(boolean cacheOperations) {
+		return this == BINARY ? new MessageBinaryCodec(cacheOperations) : null;
+	}
+}
@@ -34,6 +34,10 @@ public abstract class Operation implements Serializable{
 	private static final long serialVersionUID = -591830258037667352L;
 	
 	Timestamp timestamp;
+
+	// encoding of the operation in the binary wire format, cached on first send (see MessageBinaryCodec). It is
+	// dropped together with the operation when the log is purged
+	private transient volatile byte[] encoding;
 	
 	public Operation(Timestamp ts){
 		this.timestamp = ts;
@@ -42,6 +46,17 @@ public abstract class Operation implements Serializable{
 	public Timestamp getTimestamp() {
 		return timestamp;
 	}
+
+	/**
+	 * @return the cached encoding of this operation (must not be modified), or null if it has not been sent yet
+	 */
+	public byte[] getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(byte[] encoding) {
+		this.encoding = encoding;
+	}
 	
 	public abstract OperationType getType();
 }
@@ -0,0 +1,203 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.data;
+
+import java.util.List;
+
+/**
+ * Node of an immutable AVL tree of recipes sorted by title. Updates return a new tree that shares with the previous
+ * one all the nodes not on the path to the updated one, so a tree never changes once built and can be read by any
+ * number of threads without synchronization.
+ * 
+ * Each node also keeps the size of its subtree, so the recipe at a given position (select) and the position of a
+ * recipe (rank) are found in O(log n).
+ */
+final class RecipeNode {
+	final Recipe recipe;
+	final RecipeNode left;
+	final RecipeNode right;
+	final int height;
+	final int size;
+
+	private RecipeNode(Recipe recipe, RecipeNode left, RecipeNode right) {
+		this.recipe = recipe;
+		this.left = left;
+		this.right = right;
+		this.height = Math.max(height(left), height(right)) + 1;
+		this.size = size(left) + size(right) + 1;
+	}
+
+	static int height(RecipeNode node) {
+		return node == null ? 0 : node.height;
+	}
+
+	static int size(RecipeNode node) {
+		return node == null ? 0 : node.size;
+	}
+
+	static Recipe get(RecipeNode node, String title) {
+		while (node != null) {
+			int cmp = title.compareTo(node.recipe.getTitle());
+			if (cmp == 0) {
+				return node.recipe;
+			}
+			node = cmp < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * @param node root of a tree
+	 * @param position 0 <= position < size(node)
+	 * @return the recipe at position (in title order)
+	 */
+	static Recipe select(RecipeNode node, int position) {
+		while (true) {
+			int leftSize = size(node.left);
+			if (position == leftSize) {
+				return node.recipe;
+			}
+			if (position < leftSize) {
+				node = node.left;
+			} else {
+				position -= leftSize + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	/**
+	 * @param node root of a tree (null if empty)
+	 * @param title
+	 * @return number of recipes whose title is smaller than title
+	 */
+	static int rank(RecipeNode node, String title) {
+		int rank = 0;
+		while (node != null) {
+			int cmp = title.compareTo(node.recipe.getTitle());
+			if (cmp <= 0) {
+				node = node.left;
+			} else {
+				rank += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * @param node root of a tree (null if empty)
+	 * @param recipe
+	 * @return root of a tree with the recipes of node plus recipe (which replaces the one with the same title)
+	 */
+	static RecipeNode put(RecipeNode node, Recipe recipe) {
+		if (node == null) {
+			return new RecipeNode(recipe, null, null);
+		}
+		int cmp = recipe.getTitle().compareTo(node.recipe.getTitle());
+		if (cmp == 0) {
+			return new RecipeNode(recipe, node.left, node.right);
+		}
+		if (cmp < 0) {
+			return balance(node.recipe, put(node.left, recipe), node.right);
+		}
+		return balance(node.recipe, node.left, put(node.right, recipe));
+	}
+
+	/**
+	 * @param node root of a tree (null if empty)
+	 * @param title
+	 * @return root of a tree with the recipes of node but the one titled title (node itself if there is none)
+	 */
+	static RecipeNode remove(RecipeNode node, String title) {
+		if (node == null) {
+			return null;
+		}
+		int cmp = title.compareTo(node.recipe.getTitle());
+		if (cmp < 0) {
+			RecipeNode left = remove(node.left, title);
+			return left == node.left ? node : balance(node.recipe, left, node.right);
+		}
+		if (cmp > 0) {
+			RecipeNode right = remove(node.right, title);
+			return right == node.right ? node : balance(node.recipe, node.left, right);
+		}
+		if (node.left == null) {
+			return node.right;
+		}
+		if (node.right == null) {
+			return node.left;
+		}
+		// replaced by the first recipe of the right subtree
+		RecipeNode first = node.right;
+		while (first.left != null) {
+			first = first.left;
+		}
+		return balance(first.recipe, node.left, removeFirst(node.right));
+	}
+
+	private static RecipeNode removeFirst(RecipeNode node) {
+		if (node.left == null) {
+			return node.right;
+		}
+		return balance(node.recipe, removeFirst(node.left), node.right);
+	}
+
+	/**
+	 * Adds the recipes of the tree to list in title order
+	 */
+	static void addTo(RecipeNode node, List<Recipe> list) {
+		while (node != null) {
+			addTo(node.left, list);
+			list.add(node.recipe);
+			node = node.right;
+		}
+	}
+
+	/**
+	 * Builds a node from two subtrees whose heights differ at most in 2, rotating it when they differ in more than 1
+	 */
+	private static RecipeNode balance(Recipe recipe, RecipeNode left, RecipeNode right) {
+		int diff = height(left) - height(right);
+		if (diff > 1) {
+			if (height(left.left) < height(left.right)) {
+				left = rotateLeft(left.recipe, left.left, left.right);
+			}
+			return rotateRight(recipe, left, right);
+		}
+		if (diff < -1) {
+			if (height(right.right) < height(right.left)) {
+				right = rotateRight(right.recipe, right.left, right.right);
+			}
+			return rotateLeft(recipe, left, right);
+		}
+		return new RecipeNode(recipe, left, right);
+	}
+
+	private static RecipeNode rotateRight(Recipe recipe, RecipeNode left, RecipeNode right) {
+		return new RecipeNode(left.recipe, left.left, new RecipeNode(recipe, left.right, right));
+	}
+
+	private static RecipeNode rotateLeft(Recipe recipe, RecipeNode left, RecipeNode right) {
+		return new RecipeNode(right.recipe, new RecipeNode(recipe, left, right.left), right.right);
+	}
+}
@@ -18,58 +18,99 @@
 * along with this code.  If not, see <http://www.gnu.org/licenses/>.
 */
 
+
 package recipes_service.data;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
-import java.util.TreeMap;
 
 /**
+ * Recipes sorted by title. They are kept in an immutable tree (see RecipeNode) published through a volatile
+ * reference: each add or remove builds a new version of the tree sharing most of its nodes with the previous one.
+ * Writers are serialized, while reads and clone() never block and see the last version published. Many updates can
+ * be applied as a Batch, so only the final version is published.
+ * 
  * @author Joan-Manuel Marques
  * December 2012
  *
  */
 public class Recipes implements Serializable{
 	
-	private static final long serialVersionUID = -8117147242301640951L;
-	private TreeMap<String,Recipe> recipes = null;
+	private static final long serialVersionUID = 2837403745123614086L;
+	private transient volatile RecipeNode recipes = null;
 	
 	static Random rnd = new Random();
 	
 	
 	public Recipes(){
-		this.recipes = new TreeMap<String,Recipe> (); 
 	}
 	
 	public synchronized void add(Recipe recipe){
-		recipes.put(recipe.getTitle(),recipe);
+		recipes = RecipeNode.put(recipes, recipe);
 	}
 	
 	public synchronized void remove(String recipeTitle){
-		recipes.remove(recipeTitle);
+		recipes = RecipeNode.remove(recipes, recipeTitle);
+	}
+
+	/**
+	 * @return a batch of updates on the current version of the recipes
+	 */
+	public Batch batch(){
+		return new Batch(recipes);
+	}
+	public Recipe get(String recipeTitle){
+		return RecipeNode.get(recipes, recipeTitle);
+	}
+	public boolean contains(String recipeTitle){
+		return RecipeNode.get(recipes, recipeTitle) != null;
 	}
-	public synchronized Recipe get(String recipeTitle){
-		return recipes.get(recipeTitle);
+	public int size(){
+		return RecipeNode.size(recipes);
 	}
-	public synchronized boolean contains(String recipeTitle){
-		return recipes.containsKey(recipeTitle);
+
+	/**
+	 * @param position 0 <= position < size()
+	 * @return the recipe at position in title order
+	 */
+	public Recipe select(int position){
+		RecipeNode root = recipes;
+		if (position < 0 || position >= RecipeNode.size(root))
+			throw new IndexOutOfBoundsException("position: " + position + ", size: " + RecipeNode.size(root));
+		return RecipeNode.select(root, position);
+	}
+
+	/**
+	 * @param recipeTitle
+	 * @return number of recipes whose title is smaller than recipeTitle (its position in title order if it is
+	 *         contained)
+	 */
+	public int rank(String recipeTitle){
+		return RecipeNode.rank(recipes, recipeTitle);
+	}
+
+	/**
+	 * @return recipes in title order
+	 */
+	public List<Recipe> list(){
+		return list(recipes);
 	}
 	
-	public synchronized String getRandomRecipeTitle(){
-		if (recipes.isEmpty())
+	public String getRandomRecipeTitle(){
+		RecipeNode root = recipes;
+		if (root == null)
 			return null;
-		int n= (((int)(rnd.nextDouble() *10000))%recipes.size());
-		
-		Iterator<String> it = recipes.keySet().iterator();
-		String result = it.next();
-		for (int i = 0 ; i < n; i++){
-			result = it.next();
-		}
-		return result;
+		return RecipeNode.select(root, rnd.nextInt(root.size)).getTitle();
 	}
 	@Override
-	public synchronized boolean equals(Object obj) {
+	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
 		if (obj == null)
@@ -77,36 +118,102 @@ public class Recipes implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Recipes other = (Recipes) obj;
-		if (recipes == null) {
-			if (other.recipes != null)
-				return false;
-			else 
-				return true;
-		} else {
-			if (recipes.size() != other.recipes.size()){
-				return false;
+		RecipeNode root = recipes;
+		RecipeNode otherRoot = other.recipes;
+		if (root == otherRoot){
+			return true;
+		}
+		if (RecipeNode.size(root) != RecipeNode.size(otherRoot)){
+			return false;
+		}
+		// both lists are sorted by title
+		return list(root).equals(list(otherRoot));
+	}
+
+	public String toString(){
+		StringBuilder sb = new StringBuilder("{");
+		for (Iterator<Recipe> it = list(recipes).iterator(); it.hasNext(); ){
+			Recipe recipe = it.next();
+			sb.append(recipe.getTitle()).append('=').append(recipe);
+			if (it.hasNext()){
+				sb.append(", ");
 			}
-			boolean equal = true;
-			for (Iterator<String> it = recipes.keySet().iterator(); it.hasNext() && equal; ){
-				String rcp = it.next();
-				equal = recipes.get(rcp).equals(other.recipes.get(rcp));
-				if (!equal){
+		}
+		return sb.append('}').toString();
+	}
+	
+	/**
+	 * The clone shares the current version of the tree (later updates of either of them build new versions)
+	 */
+	public Recipes clone(){
+		Recipes clone = new Recipes();
+		clone.recipes = recipes;
+		return clone;
+	}
+
+	/**
+	 * Updates applied to a private version of the tree, published at once by commit(): readers see either none or all
+	 * of them, and the intermediate versions are never published. Not thread safe: used by a single writer, and no
+	 * other update can be done on the recipes until the batch is committed.
+	 */
+	public class Batch{
+		private RecipeNode base;
+		private RecipeNode root;
+
+		private Batch(RecipeNode base){
+			this.base = base;
+			this.root = base;
+		}
+
+		public Recipe get(String recipeTitle){
+			return RecipeNode.get(root, recipeTitle);
+		}
+
+		public void add(Recipe recipe){
+			root = RecipeNode.put(root, recipe);
+		}
+
+		public void remove(String recipeTitle){
+			root = RecipeNode.remove(root, recipeTitle);
+		}
+
+		/**
+		 * Publishes the updates of the batch
+		 * 
+		 * @throws ConcurrentModificationException if the recipes have been updated since the batch was created
+		 */
+		public void commit(){
+			synchronized (Recipes.this){
+				if (recipes != base){
+					throw new ConcurrentModificationException("Recipes updated during a batch");
 				}
+				recipes = root;
+				base = root;
 			}
-			return equal;
 		}
 	}
 
-	public synchronized String toString(){
-		return recipes.toString();
+	private static List<Recipe> list(RecipeNode root){
+		List<Recipe> list = new ArrayList<Recipe>(RecipeNode.size(root));
+		RecipeNode.addTo(root, list);
+		return list;
 	}
-	
-	public synchronized Recipes clone(){
-		Recipes clone = new Recipes();
-		
-		for (Iterator<Recipe> it = recipes.values().iterator(); it.hasNext();){
-			clone.add(it.next());
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		out.defaultWriteObject();
+		List<Recipe> list = list(recipes);
+		out.writeInt(list.size());
+		for (Recipe recipe : list){
+			out.writeObject(recipe);
 		}
-		return clone;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		RecipeNode root = null;
+		for (int n = in.readInt(); n > 0; n--){
+			root = RecipeNode.put(root, (Recipe) in.readObject());
+		}
+		recipes = root;
 	}
 }
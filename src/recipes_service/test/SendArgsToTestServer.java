@@ -135,6 +135,28 @@ public class SendArgsToTestServer {
 			params.put("sessionPeriod",properties.getProperty("sessionPeriod"));
 			params.put("numSes",properties.getProperty("numSes"));
 			params.put("propDegree",properties.getProperty("propDegree"));
+			params.put("operationBatchSize",properties.getProperty("operationBatchSize"));
+			params.put("wireFormat",properties.getProperty("wireFormat"));
+			params.put("nioSessionServer",properties.getProperty("nioSessionServer"));
+			params.put("virtualThreads",properties.getProperty("virtualThreads"));
+			params.put("parallelSessions",properties.getProperty("parallelSessions"));
+			params.put("sessionRoundTimeout",properties.getProperty("sessionRoundTimeout"));
+			params.put("connectionPooling",properties.getProperty("connectionPooling"));
+			params.put("connectionIdleTimeout",properties.getProperty("connectionIdleTimeout"));
+			params.put("fullDuplexSessions",properties.getProperty("fullDuplexSessions"));
+			params.put("compression",properties.getProperty("compression"));
+			params.put("compressionThreshold",properties.getProperty("compressionThreshold"));
+			params.put("digestHandshake",properties.getProperty("digestHandshake"));
+			params.put("deltaSummaries",properties.getProperty("deltaSummaries"));
+			params.put("asyncPropagation",properties.getProperty("asyncPropagation"));
+			params.put("propagationWindow",properties.getProperty("propagationWindow"));
+			params.put("adaptiveSessions",properties.getProperty("adaptiveSessions"));
+			params.put("partnerSelection",properties.getProperty("partnerSelection"));
+			params.put("operationCache",properties.getProperty("operationCache"));
+			params.put("streamingApply",properties.getProperty("streamingApply"));
+			params.put("streamingApplyBatch",properties.getProperty("streamingApplyBatch"));
+			params.put("applyLoop",properties.getProperty("applyLoop"));
+			params.put("applyQueueCapacity",properties.getProperty("applyQueueCapacity"));
 			params.put("simulationStop",properties.getProperty("simulationStop"));
 			params.put("executionStop",properties.getProperty("executionStop"));
 			params.put("simulationDelay",properties.getProperty("simulationDelay"));
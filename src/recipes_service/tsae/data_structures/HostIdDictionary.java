@@ -0,0 +1,145 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.data_structures;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import util.BinaryCoding;
+
+/**
+ * Dictionary of host ids used by the binary wire format: the first time a host id (or a list of participants) is
+ * written it is sent in full and gets a code; afterwards only the code is written. The dictionary is built again, in
+ * the same order, by the reader, so a writer and the reader of the objects it writes must each use their own
+ * instance and read objects in the order they have been written.
+ *
+ * Codes: 0 means that a new entry follows; a code c > 0 refers to the entry number c - 1.
+ *
+ * Only the ids of registered hosts (see HostRegistry) are accepted when reading: a frame with any other id is rejected,
+ * so what a peer sends cannot grow the registry or the interned indexes.
+ *
+ * Not thread safe: each stream has its own dictionary. The exception is LITERAL, which has no entries: it always writes
+ * host ids in full, so what it writes can be read independently of the rest of the stream (e.g. cached encodings).
+ */
+public class HostIdDictionary {
+	public static final HostIdDictionary LITERAL = new HostIdDictionary(true);
+
+	private boolean literal;
+
+	// writer side
+	private HashMap<String, Integer> idCodes = new HashMap<String, Integer>();
+	private IdentityHashMap<HostIndex, Integer> indexCodes = new IdentityHashMap<HostIndex, Integer>();
+
+	// reader side
+	private List<String> ids = new ArrayList<String>();
+	private List<HostIndex> indexes = new ArrayList<HostIndex>();
+
+	public HostIdDictionary() {
+		this(false);
+	}
+
+	private HostIdDictionary(boolean literal) {
+		this.literal = literal;
+	}
+
+	public void writeHostid(DataOutput out, String hostid) throws IOException {
+		if (literal) {
+			BinaryCoding.writeVarInt(out, 0);
+			BinaryCoding.writeString(out, hostid);
+			return;
+		}
+		Integer code = idCodes.get(hostid);
+		if (code != null) {
+			BinaryCoding.writeVarInt(out, code);
+			return;
+		}
+		BinaryCoding.writeVarInt(out, 0);
+		BinaryCoding.writeString(out, hostid);
+		idCodes.put(hostid, idCodes.size() + 1);
+	}
+
+	public String readHostid(DataInput in) throws IOException {
+		int code = BinaryCoding.readVarInt(in);
+		if (code == 0) {
+			String hostid = BinaryCoding.readString(in);
+			if (hostid != null && HostRegistry.ordinal(hostid) < 0) {
+				throw new IOException("Unknown host id: " + hostid);
+			}
+			if (!literal) {
+				ids.add(hostid);
+			}
+			return hostid;
+		}
+		if (code < 0 || code > ids.size()) {
+			throw new IOException("Unknown host id code: " + code);
+		}
+		return ids.get(code - 1);
+	}
+
+	void writeIndex(DataOutput out, HostIndex index) throws IOException {
+		Integer code = indexCodes.get(index);
+		if (code != null) {
+			BinaryCoding.writeVarInt(out, code);
+			return;
+		}
+		BinaryCoding.writeVarInt(out, 0);
+		BinaryCoding.writeVarInt(out, index.size());
+		for (int i = 0; i < index.size(); i++) {
+			writeHostid(out, index.id(i));
+		}
+		if (!literal) {
+			indexCodes.put(index, indexCodes.size() + 1);
+		}
+	}
+
+	HostIndex readIndex(DataInput in) throws IOException {
+		int code = BinaryCoding.readVarInt(in);
+		if (code == 0) {
+			int size = BinaryCoding.readLength(in);
+			List<String> participants = new ArrayList<String>(size);
+			Set<String> distinct = new HashSet<String>();
+			for (int i = 0; i < size; i++) {
+				String hostid = readHostid(in);
+				if (hostid == null || !distinct.add(hostid)) {
+					throw new IOException("Invalid participant: " + hostid);
+				}
+				participants.add(hostid);
+			}
+			HostIndex index = HostIndex.of(participants);
+			if (!literal) {
+				indexes.add(index);
+			}
+			return index;
+		}
+		if (code < 0 || code > indexes.size()) {
+			throw new IOException("Unknown participants code: " + code);
+		}
+		return indexes.get(code - 1);
+	}
+}
@@ -0,0 +1,241 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps each participant of the group to a dense int ordinal. TSAE data structures index their primitive arrays
+ * with these ordinals. The ordinal of a timestamp is found with an array lookup on the ordinal of its host in
+ * HostRegistry (see ordinal(Timestamp)); hosts that are not registered are looked up by id.
+ *
+ * Instances are immutable. Indexes of registered hosts are interned: all the structures created for the same list of
+ * participants (and the ones received from partners with the same list) share the same HostIndex, so two structures
+ * can check that their arrays are aligned with a reference comparison. Interning is bounded (MAX_INTERNED), and
+ * indexes with other hosts are never interned, so lists received from other nodes cannot grow the table; such indexes
+ * are only compared id by id.
+ *
+ * It also provides the terms of the digests of vectors and matrices. The digest of a structure is the sum of a term
+ * for each of its (non-null) positions. A term only depends on the host ids of the position and on its sequence
+ * number, not on ordinals, so structures with the same contents have the same digest whatever their index is, and
+ * the digest is updated in constant time when a position changes.
+ */
+final class HostIndex implements Serializable {
+
+	private static final long serialVersionUID = 2903418164466815373L;
+
+	// maximum number of interned indexes (a group only uses a few: its participants and the ones added later)
+	private static final int MAX_INTERNED = 256;
+
+	private static final ConcurrentHashMap<List<String>, HostIndex> interned = new ConcurrentHashMap<List<String>, HostIndex>();
+
+	private final String[] ids;
+
+	// derived data, rebuilt after deserialization
+	private transient HashMap<String, Integer> ordinals;
+	private transient int[] sortedOrdinals;
+	private transient long[] keys;
+	// ordinal of each host by its ordinal in HostRegistry (-1 if it is not a participant)
+	private transient int[] positions;
+
+	private HostIndex(String[] ids) {
+		this.ids = ids;
+		init();
+	}
+
+	private void init() {
+		ordinals = new HashMap<String, Integer>(ids.length * 2);
+		for (int i = 0; i < ids.length; i++) {
+			ordinals.put(ids[i], i);
+		}
+		Integer[] sorted = new Integer[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			sorted[i] = i;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return ids[o1].compareTo(ids[o2]);
+			}
+		});
+		sortedOrdinals = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			sortedOrdinals[i] = sorted[i];
+		}
+		keys = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			keys[i] = key(ids[i]);
+		}
+		int[] registered = new int[ids.length];
+		int length = 0;
+		for (int i = 0; i < ids.length; i++) {
+			registered[i] = HostRegistry.ordinal(ids[i]);
+			length = Math.max(length, registered[i] + 1);
+		}
+		positions = new int[length];
+		Arrays.fill(positions, -1);
+		for (int i = 0; i < ids.length; i++) {
+			if (registered[i] >= 0) {
+				positions[registered[i]] = i;
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return 64-bit hash (FNV-1a) of id, the same in all nodes
+	 */
+	private static long key(String id) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			hash = (hash ^ id.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @param ordinal
+	 * @param seqnum
+	 * @return term of the digest of a vector for the position of ordinal
+	 */
+	long digestTerm(int ordinal, long seqnum) {
+		return digestTerm(keys[ordinal], seqnum);
+	}
+
+	/**
+	 * @param row
+	 * @param column
+	 * @param seqnum
+	 * @return term of the digest of a matrix for position (row, column)
+	 */
+	long digestTerm(int row, int column, long seqnum) {
+		return digestTerm(keys[row] * 0x9e3779b97f4a7c15L + keys[column], seqnum);
+	}
+
+	private static long digestTerm(long key, long seqnum) {
+		if (seqnum == Timestamp.NULL_TIMESTAMP_SEQ_NUMBER) {
+			// null positions do not contribute: a host without timestamps and a missing host give the same digest
+			return 0;
+		}
+		// finalizer of SplitMix64
+		long z = key + seqnum * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @param participants
+	 * @return the (shared) index for the list of participants
+	 */
+	static HostIndex of(List<String> participants) {
+		return intern(participants.toArray(new String[participants.size()]));
+	}
+
+	private static HostIndex intern(String[] ids) {
+		List<String> key = Collections.unmodifiableList(Arrays.asList(ids));
+		HostIndex index = interned.get(key);
+		if (index == null) {
+			HostIndex newIndex = new HostIndex(ids);
+			if (interned.size() >= MAX_INTERNED || !newIndex.registered()) {
+				return newIndex;
+			}
+			index = interned.putIfAbsent(key, newIndex);
+			if (index == null) {
+				index = newIndex;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return true if all the hosts are registered in HostRegistry
+	 */
+	private boolean registered() {
+		for (String id : ids) {
+			if (HostRegistry.ordinal(id) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param id
+	 * @return an index with the same ordinals as this one plus a new ordinal for id
+	 */
+	HostIndex extend(String id) {
+		String[] extended = Arrays.copyOf(ids, ids.length + 1);
+		extended[ids.length] = id;
+		return intern(extended);
+	}
+
+	/**
+	 * @param id
+	 * @return the ordinal of id, or -1 if id is not a participant
+	 */
+	int ordinal(String id) {
+		Integer ordinal = ordinals.get(id);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	/**
+	 * @param timestamp
+	 * @return the ordinal of the host of timestamp, or -1 if it is not a participant
+	 */
+	int ordinal(Timestamp timestamp) {
+		int host = timestamp.getHostOrdinal();
+		if (host < 0) {
+			String id = timestamp.getHostid();
+			return id == null ? -1 : ordinal(id);
+		}
+		return host < positions.length ? positions[host] : -1;
+	}
+
+	String id(int ordinal) {
+		return ids[ordinal];
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @return ordinals sorted by host id (used to list data in a deterministic order). Must not be modified.
+	 */
+	int[] sortedOrdinals() {
+		return sortedOrdinals;
+	}
+
+	private Object readResolve() {
+		return intern(ids);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(ids);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.data_structures;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns each host id a compact int ordinal, the same for the whole process and never reused. Timestamps keep the
+ * ordinal of their host instead of its id, so they are compared and hashed with primitive operations; the id is only
+ * resolved to print or serialize them.
+ *
+ * Only the participants are registered (in the order of Hosts.getIds()), when TSAE starts. Other ids, e.g. the ones
+ * received from other nodes, get no ordinal (-1) and timestamps keep their id instead (see Timestamp), so what is
+ * received can never grow the registry.
+ */
+public final class HostRegistry {
+
+	private static final ConcurrentHashMap<String, Integer> ordinals = new ConcurrentHashMap<String, Integer>();
+
+	// ids by ordinal (replaced when a host is registered)
+	private static volatile String[] ids = new String[0];
+
+	private HostRegistry() {
+	}
+
+	/**
+	 * Registers the participants of the group
+	 * 
+	 * @param participants
+	 */
+	public static void register(List<String> participants) {
+		for (String id : participants) {
+			if (id != null) {
+				add(id);
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the ordinal of id, or -1 for a null id or one that has not been registered
+	 */
+	public static int ordinal(String id) {
+		if (id == null) {
+			return -1;
+		}
+		Integer ordinal = ordinals.get(id);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	private static synchronized int add(String id) {
+		Integer ordinal = ordinals.get(id);
+		if (ordinal != null) {
+			return ordinal;
+		}
+		String[] extended = Arrays.copyOf(ids, ids.length + 1);
+		extended[ids.length] = id;
+		// ids is published before the ordinal, so any thread that gets the ordinal can resolve it
+		ids = extended;
+		ordinals.put(id, extended.length - 1);
+		return extended.length - 1;
+	}
+
+	/**
+	 * @param ordinal
+	 * @return the id of ordinal, or null for -1
+	 */
+	public static String id(int ordinal) {
+		return ordinal < 0 ? null : ids[ordinal];
+	}
+
+	/**
+	 * @return number of hosts registered
+	 */
+	public static int size() {
+		return ids.length;
+	}
+}
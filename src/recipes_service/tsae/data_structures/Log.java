@@ -21,14 +21,8 @@
 package recipes_service.tsae.data_structures;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Vector;
-import java.util.concurrent.ConcurrentHashMap;
 
 //LSim logging system imports sgeag@2017
 import edu.uoc.dpcs.lsim.LSimFactory;
@@ -44,7 +38,7 @@ public class Log implements Serializable {
 	// Needed for the logging system sgeag@2017
 	private transient LSimWorker lsim = LSimFactory.getWorkerInstance();
 
-	private static final long serialVersionUID = -4864990265268259700L;
+	private static final long serialVersionUID = 1822497043617352958L;
 
 	/**
 	 * Object to synchronized updates and reads
@@ -55,15 +49,18 @@ public class Log implements Serializable {
 	};
 
 	/**
-	 * This class implements a log, that stores the operations received by a client. They are stored in a
-	 * ConcurrentHashMap (a hash table), that stores a list of operations for each member of the group.
+	 * This class implements a log, that stores the operations received by a client. It stores a segment of operations
+	 * for each member of the group, ordered by sequence number. Segments are indexed by the ordinals of index.
 	 */
-	private ConcurrentHashMap<String, List<Operation>> log = new ConcurrentHashMap<String, List<Operation>>();
+	private HostIndex index;
+	private LogSegment[] segments;
 
 	public Log(List<String> participants) {
 		// create an empty log
-		for (Iterator<String> it = participants.iterator(); it.hasNext();) {
-			log.put(it.next(), new Vector<Operation>());
+		this.index = HostIndex.of(participants);
+		this.segments = new LogSegment[index.size()];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new LogSegment();
 		}
 	}
 
@@ -72,10 +69,11 @@ public class Log implements Serializable {
 	 * 
 	 * @param log
 	 */
-	private Log(ConcurrentHashMap<String, List<Operation>> log) {
-		this.log = new ConcurrentHashMap<String, List<Operation>>();
-		for (String key : log.keySet()) {
-			this.log.put(key, new ArrayList<Operation>(log.get(key)));
+	private Log(Log log) {
+		this.index = log.index;
+		this.segments = new LogSegment[log.segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = log.segments[i].copy();
 		}
 	}
 
@@ -90,22 +88,11 @@ public class Log implements Serializable {
 		synchronized (lock) {
 			lsim.log(Level.TRACE, "Inserting into Log the operation: " + op);
 			if (op != null) {
-				// Sync by hostID
-
-				List<Operation> operations = log.get(op.getTimestamp().getHostid());
-				if (operations == null) {
-					operations = new ArrayList<Operation>();
-					log.put(op.getTimestamp().getHostid(), operations);
-				}
-				Operation lastOperation = null;
-				if (!operations.isEmpty()) {
-					lastOperation = operations.get(operations.size() - 1);
-				}
-				if (lastOperation == null || lastOperation.getTimestamp().compare(op.getTimestamp()) < 0) {
-					operations.add(op);
-					return true;
+				int ordinal = index.ordinal(op.getTimestamp());
+				if (ordinal < 0) {
+					ordinal = addHost(op.getTimestamp().getHostid());
 				}
-
+				return segments[ordinal].append(op);
 			}
 		}
 		return false;
@@ -119,23 +106,26 @@ public class Log implements Serializable {
 	 * @return list of operations
 	 */
 	public List<Operation> listNewer(TimestampVector sum) {
+		List<Operation> operations = snapshot().listNewer(sum);
+		//
+		lsim.log(Level.TRACE, "[Log.listNewer] [" + Thread.currentThread().getName() + "]: " + operations);
+		return operations;
+	}
 
-		List<Operation> operations = new ArrayList<Operation>();
+	/**
+	 * Takes a snapshot of the operations currently in the log. The cost is proportional to the number of hosts, not to
+	 * the number of operations, and the snapshot is not affected by later insertions or purges.
+	 * 
+	 * @return snapshot of the log
+	 */
+	public LogSnapshot snapshot() {
 		synchronized (lock) {
-			for (String key : getSortedKeys()) {
-
-				Timestamp lastTimestamp = sum.getLast(key);
-				for (Operation op : log.get(key)) {
-					if (lastTimestamp == null || op.getTimestamp().compare(lastTimestamp) > 0) {
-						operations.add(op);
-					}
-				}
-
+			LogSnapshot snapshot = new LogSnapshot(index);
+			for (int ordinal = 0; ordinal < segments.length; ordinal++) {
+				segments[ordinal].snapshot(snapshot, ordinal);
 			}
+			return snapshot;
 		}
-		//
-		lsim.log(Level.TRACE, "[Log.listNewer] [" + Thread.currentThread().getName() + "]: " + operations);
-		return operations;
 	}
 
 	/**
@@ -145,28 +135,33 @@ public class Log implements Serializable {
 	 * @param ack: ackSummary.
 	 */
 	public void purgeLog(TimestampMatrix ack) {
-		synchronized (lock) {
-			TimestampVector ackVector = ack.minTimestampVector();
-
-			Enumeration<String> keys = log.keys();
-			while (keys.hasMoreElements()) {
-				String key = keys.nextElement();
-				// sync block by String host
+		TimestampVector ackVector = ack.minTimestampVector();
+		HostIndex ackIndex = ackVector.getHostIndex();
+		long[] ackSeqnums = ackVector.getSeqnumbers();
 
-				Timestamp timestamp = ackVector.getLast(key);
-
-				List<Operation> operationsToremove = new ArrayList<Operation>();
-				List<Operation> logOperations = this.log.get(key);
-				for (Operation op : logOperations) {
-					if (op.getTimestamp().compare(timestamp) <= 0) {
-						operationsToremove.add(op);
-					}
+		synchronized (lock) {
+			for (int ordinal = 0; ordinal < segments.length; ordinal++) {
+				int ackOrdinal = ackIndex == index ? ordinal : ackIndex.ordinal(index.id(ordinal));
+				if (ackOrdinal >= 0) {
+					segments[ordinal].purge(ackSeqnums[ackOrdinal]);
 				}
-				logOperations.removeAll(operationsToremove);
 			}
 		}
 	}
 
+	/**
+	 * Adds a segment for a node that was not a participant when the log was created. Must be called holding lock.
+	 * 
+	 * @param hostid
+	 * @return ordinal of the new node
+	 */
+	private int addHost(String hostid) {
+		index = index.extend(hostid);
+		segments = Arrays.copyOf(segments, index.size());
+		segments[segments.length - 1] = new LogSegment();
+		return segments.length - 1;
+	}
+
 	/**
 	 * equals
 	 */
@@ -182,12 +177,29 @@ public class Log implements Serializable {
 			return false;
 		}
 		Log other = (Log) obj;
-		return this.log.equals(other.log);
+		HostIndex otherIndex;
+		LogSegment[] otherSegments;
+		synchronized (other.lock) {
+			otherIndex = other.index;
+			otherSegments = other.segments;
+		}
+		synchronized (lock) {
+			if (otherIndex.size() != index.size()) {
+				return false;
+			}
+			for (int i = 0; i < segments.length; i++) {
+				int j = otherIndex == index ? i : otherIndex.ordinal(index.id(i));
+				if (j < 0 || !segments[i].sameOperations(otherSegments[j])) {
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 
 	public Log clone() {
 		synchronized (lock) {
-			return new Log(log);
+			return new Log(this);
 		}
 	}
 
@@ -197,27 +209,15 @@ public class Log implements Serializable {
 	@Override
 	public synchronized String toString() {
 		String name = "";
-		for (String key : getSortedKeys()) {
-			List<Operation> sublog = log.get(key);
-			for (ListIterator<Operation> en2 = sublog.listIterator(); en2.hasNext();) {
-				name += en2.next().toString() + "\n";
+		synchronized (lock) {
+			for (int ordinal : index.sortedOrdinals()) {
+				LogSegment segment = segments[ordinal];
+				for (int i = 0; i < segment.size(); i++) {
+					name += segment.get(i).toString() + "\n";
+				}
 			}
 		}
 
 		return name;
 	}
-
-	/**
-	 * Method to return log keys sorted by name
-	 * 
-	 * @return
-	 */
-	private List<String> getSortedKeys() {
-		List<String> sortedKeys = new ArrayList<String>();
-		for (Enumeration<String> en = log.keys(); en.hasMoreElements();) {
-			sortedKeys.add(en.nextElement());
-		}
-		Collections.sort(sortedKeys);
-		return sortedKeys;
-	}
 }
\ No newline at end of file
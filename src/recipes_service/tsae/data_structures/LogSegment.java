@@ -0,0 +1,240 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import recipes_service.data.Operation;
+
+/**
+ * Operations of the log issued by a single host. Operations are only appended, in increasing order of sequence
+ * number, and their sequence numbers are kept in a parallel array so the position of a timestamp is found with a
+ * binary search.
+ *
+ * Purge only removes prefixes: it moves head forward up to a low watermark. The purged prefix is released when it
+ * becomes as large as the live part of the segment, by copying the live operations to new arrays, so the cost of a
+ * purge is proportional to the number of purged operations. Until then, the cached encodings of the purged operations
+ * are dropped, and their slots are cleared unless a snapshot may still refer to them.
+ *
+ * Not thread safe: Log synchronizes the access.
+ */
+class LogSegment implements Serializable {
+
+	private static final long serialVersionUID = -1733186516347102335L;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// live operations are in positions [head, size)
+	private transient Operation[] operations;
+	private transient long[] seqnums;
+	private transient int head;
+	private transient int size;
+	// slots below visible may be referenced by a snapshot of the current arrays
+	private transient int visible;
+
+	// sequence number up to which operations have been purged
+	private transient long watermark = Timestamp.NULL_TIMESTAMP_SEQ_NUMBER;
+
+	LogSegment() {
+		this.operations = new Operation[INITIAL_CAPACITY];
+		this.seqnums = new long[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Constructor to clone
+	 *
+	 * @param segment
+	 */
+	private LogSegment(LogSegment segment) {
+		this.size = segment.size();
+		this.watermark = segment.watermark;
+		int capacity = Math.max(INITIAL_CAPACITY, size);
+		this.operations = new Operation[capacity];
+		this.seqnums = new long[capacity];
+		System.arraycopy(segment.operations, segment.head, operations, 0, size);
+		System.arraycopy(segment.seqnums, segment.head, seqnums, 0, size);
+	}
+
+	/**
+	 * appends op if it is newer than the last operation of the segment and than the purged ones
+	 *
+	 * @param op
+	 * @return true if op is appended, false otherwise.
+	 */
+	boolean append(Operation op) {
+		long seqnum = op.getTimestamp().getSeqnumber();
+		// an operation already purged can still be received (e.g. from a concurrent session)
+		if (seqnum <= watermark || (size > head && seqnums[size - 1] >= seqnum)) {
+			return false;
+		}
+		if (size == operations.length) {
+			reallocate();
+		}
+		operations[size] = op;
+		seqnums[size] = seqnum;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @param seqnums sorted sequence numbers
+	 * @param from
+	 * @param to
+	 * @param seqnum
+	 * @return position of the first element of seqnums in [from, to) greater than seqnum (to if there is none)
+	 */
+	static int firstNewer(long[] seqnums, int from, int to, long seqnum) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (seqnums[mid] <= seqnum) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Stores in position i of the arrays of snapshot the current (not purged) operations of this segment. Slots
+	 * below size are never written again (appends go after them and purges only move head, clear slots no snapshot
+	 * refers to or copy to new arrays), so the stored range remains valid while the segment changes.
+	 *
+	 * @param snapshot
+	 * @param i
+	 */
+	void snapshot(LogSnapshot snapshot, int i) {
+		snapshot.operations[i] = operations;
+		snapshot.seqnums[i] = seqnums;
+		snapshot.start[i] = head;
+		snapshot.end[i] = size;
+		visible = size;
+	}
+
+	/**
+	 * removes the operations with a sequence number smaller or equal than seqnum
+	 *
+	 * @param seqnum
+	 */
+	void purge(long seqnum) {
+		if (seqnum <= watermark) {
+			return;
+		}
+		watermark = seqnum;
+		while (head < size && seqnums[head] <= seqnum) {
+			operations[head].setEncoding(null);
+			if (head >= visible) {
+				operations[head] = null;
+			}
+			head++;
+		}
+		if (head >= INITIAL_CAPACITY && head >= size - head) {
+			reallocate();
+		}
+	}
+
+	/**
+	 * copies the live operations to new arrays with room for as many operations, dropping the purged prefix
+	 */
+	private void reallocate() {
+		int live = size - head;
+		int capacity = Math.max(INITIAL_CAPACITY, live * 2);
+		Operation[] newOperations = new Operation[capacity];
+		long[] newSeqnums = new long[capacity];
+		System.arraycopy(operations, head, newOperations, 0, live);
+		System.arraycopy(seqnums, head, newSeqnums, 0, live);
+		operations = newOperations;
+		seqnums = newSeqnums;
+		head = 0;
+		size = live;
+		visible = 0;
+	}
+
+	/**
+	 * @return number of (not purged) operations in the segment
+	 */
+	int size() {
+		return size - head;
+	}
+
+	/**
+	 * @param i
+	 * @return the i-th (not purged) operation of the segment
+	 */
+	Operation get(int i) {
+		return operations[head + i];
+	}
+
+	LogSegment copy() {
+		return new LogSegment(this);
+	}
+
+	/**
+	 * Used by Log.equals (segments are not compared with equals, as they are mutable and not hashed)
+	 * 
+	 * @param other
+	 * @return true if both segments contain the same (not purged) operations
+	 */
+	boolean sameOperations(LogSegment other) {
+		if (this == other) {
+			return true;
+		}
+		if (size() != other.size()) {
+			return false;
+		}
+		for (int i = 0; i < size(); i++) {
+			if (!get(i).equals(other.get(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Only the watermark and the live operations are serialized
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeLong(watermark);
+		out.writeInt(size());
+		for (int i = head; i < size; i++) {
+			out.writeObject(operations[i]);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		watermark = in.readLong();
+		size = in.readInt();
+		int capacity = Math.max(INITIAL_CAPACITY, size);
+		operations = new Operation[capacity];
+		seqnums = new long[capacity];
+		for (int i = 0; i < size; i++) {
+			operations[i] = (Operation) in.readObject();
+			seqnums[i] = operations[i].getTimestamp().getSeqnumber();
+		}
+	}
+}
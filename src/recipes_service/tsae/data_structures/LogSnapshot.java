@@ -0,0 +1,73 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package recipes_service.tsae.data_structures;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.data.Operation;
+
+/**
+ * Read-only view of the operations that a Log contained when Log.snapshot() was called. For each host it keeps the
+ * [start, end) range of the arrays of its LogSegment, without copying any operation.
+ */
+public class LogSnapshot {
+	private final HostIndex index;
+
+	// filled by LogSegment.snapshot
+	final Operation[][] operations;
+	final long[][] seqnums;
+	final int[] start;
+	final int[] end;
+
+	LogSnapshot(HostIndex index) {
+		this.index = index;
+		this.operations = new Operation[index.size()][];
+		this.seqnums = new long[index.size()][];
+		this.start = new int[index.size()];
+		this.end = new int[index.size()];
+	}
+
+	/**
+	 * Checks the received summary (sum) and determines the operations contained in the snapshot that have not been
+	 * seen by the proprietary of the summary. Returns them in an ordered list.
+	 * 
+	 * @param sum
+	 * @return list of operations
+	 */
+	public List<Operation> listNewer(TimestampVector sum) {
+		TimestampVector last = sum.clone();
+		HostIndex sumIndex = last.getHostIndex();
+		long[] sumSeqnums = last.getSeqnumbers();
+
+		List<Operation> newer = new ArrayList<Operation>();
+		for (int ordinal : index.sortedOrdinals()) {
+			int sumOrdinal = sumIndex == index ? ordinal : sumIndex.ordinal(index.id(ordinal));
+			// when sum has no timestamp for the host all its operations are newer
+			long seqnum = sumOrdinal < 0 ? Long.MIN_VALUE : sumSeqnums[sumOrdinal];
+			int first = LogSegment.firstNewer(seqnums[ordinal], start[ordinal], end[ordinal], seqnum);
+			for (int i = first; i < end[ordinal]; i++) {
+				newer.add(operations[ordinal][i]);
+			}
+		}
+		return newer;
+	}
+}
@@ -19,8 +19,16 @@
 */
 
 package recipes_service.tsae.data_structures;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
+import util.BinaryCoding;
+
 /**
  * @author Joan-Manuel Marques, Daniel Lázaro Iglesias
  * December 2012
@@ -40,15 +48,41 @@ public class Timestamp implements Serializable{
 	 * to other operations issued by that node.
 	 */
 	
-	private String hostid;
+	
+	// ordinal of the node in HostRegistry (-1 for a null node). Serialized as its id (see serialPersistentFields)
+	private int host;
+	// id of a node that is not registered in HostRegistry (null otherwise)
+	private transient String hostid;
 	private long seqnumber;
+
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("hostid", String.class),
+		new ObjectStreamField("seqnumber", long.class)
+	};
 	
 	public Timestamp(String nodeid, long seqnumber){
-		this.hostid = nodeid;
+		setHostid(nodeid);
 		this.seqnumber = seqnumber;
 	}
+
+	private void setHostid(String nodeid){
+		this.host = HostRegistry.ordinal(nodeid);
+		this.hostid = host < 0 ? nodeid : null;
+	}
+
 	public String getHostid() {
-		return hostid;
+		return host < 0 ? hostid : HostRegistry.id(host);
+	}
+
+	/**
+	 * @return ordinal of the node in HostRegistry (-1 for a null node or one that is not registered)
+	 */
+	public int getHostOrdinal() {
+		return host;
+	}
+	
+	public long getSeqnumber() {
+		return seqnumber;
 	}
 	
 	public boolean isNullTimestamp(){
@@ -80,21 +114,78 @@ public class Timestamp implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Timestamp other = (Timestamp) obj;
-		if (hostid == null) {
-			if (other.hostid != null)
-				return false;
-		} else if (!hostid.equals(other.hostid))
+		if (host != other.host)
+			return false;
+		if (host < 0 && (hostid == null ? other.hostid != null : !hostid.equals(other.hostid)))
 			return false;
 		if (seqnumber != other.seqnumber)
 			return false;
 		return true;
 	}
+
+	/**
+	 * hashCode (consistent with equals)
+	 */
+	@Override
+	public int hashCode() {
+		int hostHash = host < 0 && hostid != null ? hostid.hashCode() : host;
+		return 31 * hostHash + (int) (seqnumber ^ (seqnumber >>> 32));
+	}
 	
+	/**
+	 * Writes this timestamp in the binary wire format
+	 * @param out
+	 * @param hostids dictionary of the stream
+	 */
+	public void writeTo(DataOutput out, HostIdDictionary hostids) throws IOException{
+		hostids.writeHostid(out, getHostid());
+		writeSeqnumber(out, seqnumber);
+	}
+
+	public static Timestamp readFrom(DataInput in, HostIdDictionary hostids) throws IOException{
+		String hostid = hostids.readHostid(in);
+		return new Timestamp(hostid, readSeqnumber(in));
+	}
+
+	/**
+	 * Writes a sequence number in the binary wire format: one byte for the null timestamp,
+	 * and a few bytes for small sequence numbers
+	 */
+	static void writeSeqnumber(DataOutput out, long seqnumber) throws IOException{
+		if (seqnumber == NULL_TIMESTAMP_SEQ_NUMBER){
+			BinaryCoding.writeVarLong(out, 0);
+		} else {
+			BinaryCoding.writeVarLong(out, ((seqnumber << 1) ^ (seqnumber >> 63)) + 1);
+		}
+	}
+
+	static long readSeqnumber(DataInput in) throws IOException{
+		long value = BinaryCoding.readVarLong(in);
+		if (value == 0){
+			return NULL_TIMESTAMP_SEQ_NUMBER;
+		}
+		value--;
+		return (value >>> 1) ^ -(value & 1);
+	}
+
 	/**
 	 * toString
 	 */
 	public String toString(){
-		return hostid+":   "+seqnumber;
+		return getHostid()+":   "+seqnumber;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException{
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("hostid", getHostid());
+		fields.put("seqnumber", seqnumber);
+		out.writeFields();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException{
+		ObjectInputStream.GetField fields = in.readFields();
+		setHostid((String) fields.get("hostid", null));
+		seqnumber = fields.get("seqnumber", 0L);
 	}
 	
 }
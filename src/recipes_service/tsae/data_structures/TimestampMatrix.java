@@ -20,13 +20,12 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
 
 //LSim logging system imports sgeag@2017
 import edu.uoc.dpcs.lsim.LSimFactory;
@@ -41,7 +40,11 @@ public class TimestampMatrix implements Serializable {
 	// Needed for the logging system sgeag@2017
 	private transient LSimWorker lsim = LSimFactory.getWorkerInstance();
 
-	private static final long serialVersionUID = 3331148113387926667L;
+	private static final long serialVersionUID = -1475802937018436315L;
+
+	// maximum number of entries of a matrix read from the wire: a valid one is never larger than a frame
+	// (Frames.MAX_FRAME_SIZE), as a dense matrix takes at least a byte per entry
+	private static final long MAX_DECODED_ENTRIES = 64L * 1024 * 1024;
 
 	/**
 	 * Object to synchronized updates and reads
@@ -50,24 +53,75 @@ public class TimestampMatrix implements Serializable {
 		private static final long serialVersionUID = -7957383889803192348L;		
 	};
 
-	ConcurrentHashMap<String, TimestampVector> timestampMatrix = new ConcurrentHashMap<String, TimestampVector>();
+	/**
+	 * Row i stores the sequence numbers that node i is known to have received from each node. Rows and columns are
+	 * indexed by the ordinals of index.
+	 * 
+	 * For each column, the minimum of all the rows and the number of rows holding that minimum are maintained on every
+	 * update, so the timestamps known by all participants are available without scanning the matrix.
+	 * 
+	 * index is immutable (adding a node replaces it) and volatile, so ordinals can be looked up without locking.
+	 */
+	private volatile HostIndex index;
+	private long[][] rows;
+	private long[] minSeqnums;
+	private int[] minCount;
+
+	/**
+	 * Digest of the matrix (see HostIndex), updated with each change. Volatile so it can be compared without locking.
+	 */
+	private volatile long digest;
 
 	public TimestampMatrix(List<String> participants) {
 		// create and empty TimestampMatrix
-		for (Iterator<String> it = participants.iterator(); it.hasNext();) {
-			timestampMatrix.put(it.next(), new TimestampVector(participants));
+		this.index = HostIndex.of(participants);
+		int n = index.size();
+		this.rows = new long[n][n];
+		for (long[] row : rows) {
+			Arrays.fill(row, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
 		}
+		this.minSeqnums = new long[n];
+		Arrays.fill(minSeqnums, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		this.minCount = new int[n];
+		Arrays.fill(minCount, n);
 	}
 
 	/**
 	 * Construtor to clone
 	 * 
-	 * @param timestampMatrix
+	 * @param tsMatrix
+	 */
+	private TimestampMatrix(TimestampMatrix tsMatrix) {
+		this.index = tsMatrix.index;
+		this.rows = new long[tsMatrix.rows.length][];
+		for (int i = 0; i < rows.length; i++) {
+			this.rows[i] = tsMatrix.rows[i].clone();
+		}
+		this.minSeqnums = tsMatrix.minSeqnums.clone();
+		this.minCount = tsMatrix.minCount.clone();
+		this.digest = tsMatrix.digest;
+	}
+
+	/**
+	 * Constructor for a matrix read from the wire (or a delta)
+	 * 
+	 * @param index
+	 * @param rows
 	 */
-	private TimestampMatrix(ConcurrentHashMap<String, TimestampVector> timestampMatrix) {
-		this.timestampMatrix = new ConcurrentHashMap<String, TimestampVector>(timestampMatrix.size());
-		for (String key : timestampMatrix.keySet()) {
-			this.timestampMatrix.put(key, timestampMatrix.get(key).clone());
+	private TimestampMatrix(HostIndex index, long[][] rows) {
+		this.index = index;
+		this.rows = rows;
+		this.minSeqnums = new long[index.size()];
+		this.minCount = new int[index.size()];
+		long sum = 0;
+		for (int i = 0; i < rows.length; i++) {
+			for (int j = 0; j < rows[i].length; j++) {
+				sum += index.digestTerm(i, j, rows[i][j]);
+			}
+		}
+		this.digest = sum;
+		for (int j = 0; j < minSeqnums.length; j++) {
+			recomputeMin(j);
 		}
 	}
 
@@ -75,11 +129,15 @@ public class TimestampMatrix implements Serializable {
 	 * Not private for testing purposes.
 	 * 
 	 * @param node
-	 * @return the timestamp vector of node in this timestamp matrix
+	 * @return a copy of the timestamp vector of node in this timestamp matrix
 	 */
 	TimestampVector getTimestampVector(String node) {
 		synchronized (lock) {
-			return timestampMatrix.get(node);
+			int ordinal = index.ordinal(node);
+			if (ordinal < 0) {
+				return null;
+			}
+			return new TimestampVector(index, rows[ordinal]);
 		}
 	}
 
@@ -89,16 +147,40 @@ public class TimestampMatrix implements Serializable {
 	 * @param tsMatrix
 	 */
 	public void updateMax(TimestampMatrix tsMatrix) {
+		// elements of tsMatrix are read without holding its lock: it is only required that each value read is one
+		// that tsMatrix has held
+		HostIndex otherIndex;
+		long[][] otherRows;
+		synchronized (tsMatrix.lock) {
+			otherIndex = tsMatrix.index;
+			otherRows = tsMatrix.rows;
+		}
 		synchronized (lock) {
 			lsim.log(Level.TRACE, "[TimestampMatrix.updateMax] [" + Thread.currentThread().getName() + "]");
-			Enumeration<String> keys = timestampMatrix.keys();
-			while (keys.hasMoreElements()) {
-				String key = keys.nextElement();
-				TimestampVector currentMine = getTimestampVector(key);
-				TimestampVector currentOther = tsMatrix.getTimestampVector(key);
-
-				if (currentMine != null) {
-					currentMine.updateMax(currentOther);
+			if (otherIndex == index) {
+				for (int i = 0; i < rows.length; i++) {
+					long[] row = rows[i];
+					long[] otherRow = otherRows[i];
+					for (int j = 0; j < row.length; j++) {
+						if (row[j] < otherRow[j]) {
+							set(i, j, otherRow[j]);
+						}
+					}
+				}
+			} else {
+				for (int i = 0; i < rows.length; i++) {
+					int otherI = otherIndex.ordinal(index.id(i));
+					if (otherI < 0) {
+						continue;
+					}
+					long[] row = rows[i];
+					long[] otherRow = otherRows[otherI];
+					for (int j = 0; j < row.length; j++) {
+						int otherJ = otherIndex.ordinal(index.id(j));
+						if (otherJ >= 0 && row[j] < otherRow[otherJ]) {
+							set(i, j, otherRow[otherJ]);
+						}
+					}
 				}
 			}
 		}
@@ -111,31 +193,130 @@ public class TimestampMatrix implements Serializable {
 	 * @param tsVector
 	 */
 	public void update(String node, TimestampVector tsVector) {
+		TimestampVector values = tsVector.clone();
+		HostIndex valuesIndex = values.getHostIndex();
+		long[] seqnums = values.getSeqnumbers();
 		synchronized (lock) {
 			lsim.log(Level.TRACE, "[TimestampMatix.update] [" + Thread.currentThread().getName() + "]: " + node
 					+ " with " + tsVector);
-			// TimestampVector currentTimestampVector = timestampMatrix.get(node)
-			timestampMatrix.put(node, tsVector);
+			int i = index.ordinal(node);
+			if (i < 0) {
+				i = addHost(node);
+			}
+			if (valuesIndex == index) {
+				for (int j = 0; j < seqnums.length; j++) {
+					set(i, j, seqnums[j]);
+				}
+			} else {
+				for (int k = 0; k < valuesIndex.size(); k++) {
+					if (index.ordinal(valuesIndex.id(k)) < 0) {
+						addHost(valuesIndex.id(k));
+					}
+				}
+				for (int j = 0; j < index.size(); j++) {
+					int k = valuesIndex.ordinal(index.id(j));
+					set(i, j, k < 0 ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : seqnums[k]);
+				}
+			}
 		}
 	}
 
 	/**
+	 * How far the row of node is from reference (e.g. the local summary): the number of operations in reference
+	 * that node is not known to have received. Nothing is allocated.
 	 * 
-	 * @return a timestamp vector containing, for each node, the timestamp known by all participants
+	 * @param node
+	 * @param reference
+	 * @return the sum, for each participant, of the sequence numbers of reference newer than the ones of the row of
+	 *         node (all of them if node is not a participant)
 	 */
-	public TimestampVector minTimestampVector() {
+	public long lag(String node, TimestampVector reference) {
+		HostIndex referenceIndex;
+		long[] referenceSeqnums;
+		// (see updateMax)
+		synchronized (reference.getLock()) {
+			referenceIndex = reference.getHostIndex();
+			referenceSeqnums = reference.getSeqnumbers();
+		}
+		synchronized (lock) {
+			int i = index.ordinal(node);
+			long[] row = i < 0 ? null : rows[i];
+			long lag = 0;
+			for (int k = 0; k < referenceSeqnums.length; k++) {
+				long seqnum = Timestamp.NULL_TIMESTAMP_SEQ_NUMBER;
+				if (row != null) {
+					int j = referenceIndex == index ? k : index.ordinal(referenceIndex.id(k));
+					if (j >= 0) {
+						seqnum = row[j];
+					}
+				}
+				// sequence numbers start at 0
+				long missing = Math.max(referenceSeqnums[k], -1) - Math.max(seqnum, -1);
+				if (missing > 0) {
+					lag += missing;
+				}
+			}
+			return lag;
+		}
+	}
+
+	/**
+	 * lag(node, reference) of every participant, computed holding the locks once (as selecting partners needs the
+	 * lag of all of them).
+	 * 
+	 * @param reference
+	 * @param lags array to reuse (may be null)
+	 * @return lags if it has one position per participant plus one, or a new array otherwise: position i holds the
+	 *         lag of the participant of ordinal i (see ordinal(String)) and the last one the lag of a node that is not
+	 *         a participant
+	 */
+	public long[] lags(TimestampVector reference, long[] lags) {
+		HostIndex referenceIndex;
+		long[] referenceSeqnums;
+		// (see updateMax)
+		synchronized (reference.getLock()) {
+			referenceIndex = reference.getHostIndex();
+			referenceSeqnums = reference.getSeqnumbers();
+		}
 		synchronized (lock) {
-			Enumeration<String> keys = timestampMatrix.keys();
-
-			TimestampVector minTimestampVector = null;
-			while (keys.hasMoreElements()) {
-				TimestampVector currentNodeTimestamp = timestampMatrix.get(keys.nextElement()).clone();
-				if (minTimestampVector == null) {
-					minTimestampVector = currentNodeTimestamp;
-				} else {
-					minTimestampVector.mergeMin(currentNodeTimestamp);
+			int n = rows.length;
+			if (lags == null || lags.length != n + 1) {
+				lags = new long[n + 1];
+			}
+			Arrays.fill(lags, 0);
+			for (int k = 0; k < referenceSeqnums.length; k++) {
+				// sequence numbers start at 0
+				long seqnum = Math.max(referenceSeqnums[k], -1);
+				lags[n] += seqnum + 1;
+				int j = referenceIndex == index ? k : index.ordinal(referenceIndex.id(k));
+				for (int i = 0; i < n; i++) {
+					long missing = seqnum - Math.max(j < 0 ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : rows[i][j], -1);
+					if (missing > 0) {
+						lags[i] += missing;
+					}
 				}
 			}
+			return lags;
+		}
+	}
+
+	/**
+	 * Does not lock (see index): ordinals never change once assigned.
+	 * 
+	 * @param node
+	 * @return the ordinal of node in the arrays returned by lags, or -1 if it is not a participant
+	 */
+	public int ordinal(String node) {
+		return index.ordinal(node);
+	}
+
+	/**
+	 * 
+	 * @return a timestamp vector containing, for each node, the timestamp known by all participants
+	 */
+	public TimestampVector minTimestampVector() {
+		synchronized (lock) {
+			TimestampVector minTimestampVector = new TimestampVector(index, minSeqnums);
 
 			lsim.log(Level.TRACE, "[TimestampMatix.minTimestampVector [" + Thread.currentThread().getName() + "]: "
 					+ minTimestampVector);
@@ -144,12 +325,143 @@ public class TimestampMatrix implements Serializable {
 		}
 	}
 
+	/**
+	 * Sets a position of the matrix keeping the minimum of its column and the digest. Must be called holding lock.
+	 * 
+	 * @param i row
+	 * @param j column
+	 * @param value
+	 */
+	private void set(int i, int j, long value) {
+		long old = rows[i][j];
+		if (old == value) {
+			return;
+		}
+		rows[i][j] = value;
+		digest += index.digestTerm(i, j, value) - index.digestTerm(i, j, old);
+		if (value < minSeqnums[j]) {
+			minSeqnums[j] = value;
+			minCount[j] = 1;
+		} else if (value == minSeqnums[j]) {
+			minCount[j]++;
+		} else if (old == minSeqnums[j] && --minCount[j] == 0) {
+			recomputeMin(j);
+		}
+	}
+
+	/**
+	 * Recomputes the minimum of column j. Must be called holding lock.
+	 * 
+	 * @param j
+	 */
+	private void recomputeMin(int j) {
+		long min = Long.MAX_VALUE;
+		int count = 0;
+		for (long[] row : rows) {
+			if (row[j] < min) {
+				min = row[j];
+				count = 1;
+			} else if (row[j] == min) {
+				count++;
+			}
+		}
+		minSeqnums[j] = rows.length == 0 ? Timestamp.NULL_TIMESTAMP_SEQ_NUMBER : min;
+		minCount[j] = count;
+	}
+
+	/**
+	 * Adds a node that was not a participant when the matrix was created: a new row and a new column, both with null
+	 * timestamps. Must be called holding lock.
+	 * 
+	 * @param hostid
+	 * @return ordinal of the new node
+	 */
+	private int addHost(String hostid) {
+		index = index.extend(hostid);
+		int n = index.size();
+		long[][] newRows = Arrays.copyOf(rows, n);
+		for (int i = 0; i < n - 1; i++) {
+			newRows[i] = Arrays.copyOf(rows[i], n);
+			newRows[i][n - 1] = Timestamp.NULL_TIMESTAMP_SEQ_NUMBER;
+		}
+		newRows[n - 1] = new long[n];
+		Arrays.fill(newRows[n - 1], Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		rows = newRows;
+		minSeqnums = Arrays.copyOf(minSeqnums, n);
+		minCount = Arrays.copyOf(minCount, n);
+		for (int j = 0; j < n; j++) {
+			recomputeMin(j);
+		}
+		return n - 1;
+	}
+
+	/**
+	 * @return a 64-bit digest of the matrix: equal matrices have the same digest (also when their participants are
+	 *         indexed in a different order), so two matrices with the same digest are equal with a very high
+	 *         probability
+	 */
+	public long digest() {
+		return digest;
+	}
+
+	/**
+	 * Writes this matrix in the binary wire format
+	 * 
+	 * @param out
+	 * @param hostids dictionary of the stream
+	 */
+	public void writeTo(DataOutput out, HostIdDictionary hostids) throws IOException {
+		synchronized (lock) {
+			hostids.writeIndex(out, index);
+			TimestampVector.writeSeqnumbers(out, rows);
+		}
+	}
+
+	public static TimestampMatrix readFrom(DataInput in, HostIdDictionary hostids) throws IOException {
+		HostIndex index = hostids.readIndex(in);
+		if ((long) index.size() * index.size() > MAX_DECODED_ENTRIES) {
+			throw new IOException("Too many participants: " + index.size());
+		}
+		long[][] rows = new long[index.size()][index.size()];
+		TimestampVector.readSeqnumbers(in, rows);
+		return new TimestampMatrix(index, rows);
+	}
+
+	/**
+	 * Entries of this matrix that changed since base, an older version of it. As entries only grow,
+	 * base.updateMax(delta) gives this matrix.
+	 * 
+	 * @param base
+	 * @return a matrix with the entries of this one greater than the ones of base and null timestamps in the rest, or
+	 *         null if base has different participants
+	 */
+	public TimestampMatrix delta(TimestampMatrix base) {
+		HostIndex baseIndex;
+		long[][] baseRows;
+		synchronized (base.lock) {
+			baseIndex = base.index;
+			baseRows = base.rows;
+		}
+		synchronized (lock) {
+			if (baseIndex != index) {
+				return null;
+			}
+			long[][] deltaRows = new long[rows.length][rows.length];
+			for (int i = 0; i < rows.length; i++) {
+				for (int j = 0; j < rows.length; j++) {
+					deltaRows[i][j] = rows[i][j] > baseRows[i][j] ? rows[i][j] : Timestamp.NULL_TIMESTAMP_SEQ_NUMBER;
+				}
+			}
+			return new TimestampMatrix(index, deltaRows);
+		}
+	}
+
 	/**
 	 * clone
 	 */
 	public TimestampMatrix clone() {
 		synchronized (lock) {
-			return new TimestampMatrix(this.timestampMatrix);
+			return new TimestampMatrix(this);
 		}
 	}
 
@@ -168,7 +480,33 @@ public class TimestampMatrix implements Serializable {
 			return false;
 		}
 		TimestampMatrix other = (TimestampMatrix) obj;
-		return this.timestampMatrix.equals(other.timestampMatrix);
+		HostIndex otherIndex;
+		long[][] otherRows;
+		synchronized (other.lock) {
+			otherIndex = other.index;
+			otherRows = other.rows;
+		}
+		synchronized (lock) {
+			if (otherIndex == index) {
+				return Arrays.deepEquals(rows, otherRows);
+			}
+			if (otherIndex.size() != index.size()) {
+				return false;
+			}
+			for (int i = 0; i < rows.length; i++) {
+				int otherI = otherIndex.ordinal(index.id(i));
+				if (otherI < 0) {
+					return false;
+				}
+				for (int j = 0; j < rows[i].length; j++) {
+					int otherJ = otherIndex.ordinal(index.id(j));
+					if (otherJ < 0 || rows[i][j] != otherRows[otherI][otherJ]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
 	}
 
 	/**
@@ -177,27 +515,14 @@ public class TimestampMatrix implements Serializable {
 	@Override
 	public synchronized String toString() {
 		String all = "";
-		if (timestampMatrix == null) {
+		if (rows == null) {
 			return all;
 		}
-		for (String name : getSortedKeys()) {
-			if (timestampMatrix.get(name) != null)
-				all += name + ":   " + timestampMatrix.get(name) + "\n";
+		synchronized (lock) {
+			for (int ordinal : index.sortedOrdinals()) {
+				all += index.id(ordinal) + ":   " + new TimestampVector(index, rows[ordinal]) + "\n";
+			}
 		}
 		return all;
 	}
-
-	/**
-	 * Method to return log keys sorted by name
-	 * 
-	 * @return
-	 */
-	private List<String> getSortedKeys() {
-		List<String> sortedKeys = new ArrayList<String>();
-		for (Enumeration<String> en = timestampMatrix.keys(); en.hasMoreElements();) {
-			sortedKeys.add(en.nextElement());
-		}
-		Collections.sort(sortedKeys);
-		return sortedKeys;
-	}
 }
\ No newline at end of file
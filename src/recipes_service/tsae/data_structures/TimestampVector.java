@@ -20,13 +20,14 @@
 
 package recipes_service.tsae.data_structures;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+
+import util.BinaryCoding;
 
 //LSim logging system imports sgeag@2017
 import lsim.worker.LSimWorker;
@@ -41,7 +42,7 @@ public class TimestampVector implements Serializable {
 	// Needed for the logging system sgeag@2017
 	private transient LSimWorker lsim = LSimFactory.getWorkerInstance();
 
-	private static final long serialVersionUID = -765026247959198886L;
+	private static final long serialVersionUID = -2390785437412164384L;
 
 	/**
 	 * Object to synchronized updates and reads
@@ -51,29 +52,67 @@ public class TimestampVector implements Serializable {
 	};
 
 	/**
-	 * This class stores a summary of the timestamps seen by a node. For each node, stores the timestamp of the last
-	 * received operation.
+	 * This class stores a summary of the timestamps seen by a node. For each node, stores the sequence number of the
+	 * last received operation. Nodes are mapped to positions of the array through a HostIndex shared by all the
+	 * vectors (and matrices) created for the same participants, so merges between them are plain array loops.
 	 */
+	private HostIndex index;
+	private long[] seqnums;
 
-	private ConcurrentHashMap<String, Timestamp> timestampVector = new ConcurrentHashMap<String, Timestamp>();
+	/**
+	 * Digest of the sequence numbers (see HostIndex), updated with each change. Volatile so it can be compared
+	 * without locking.
+	 */
+	private volatile long digest;
 
 	public TimestampVector(List<String> participants) {
-		// create and empty TimestampVector
-		for (Iterator<String> it = participants.iterator(); it.hasNext();) {
-			String id = it.next();
-			// when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
-			timestampVector.put(id, new Timestamp(id, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER));
-		}
+		this(HostIndex.of(participants));
+	}
+
+	/**
+	 * creates an empty TimestampVector
+	 * 
+	 * @param index
+	 */
+	TimestampVector(HostIndex index) {
+		this.index = index;
+		this.seqnums = new long[index.size()];
+		// when sequence number of timestamp < 0 it means that the timestamp is the null timestamp
+		Arrays.fill(this.seqnums, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
 	}
 
 	/**
 	 * Construtor to clone
 	 * 
-	 * @param timestampVector
+	 * @param index
+	 * @param seqnums
 	 */
-	private TimestampVector(ConcurrentHashMap<String, Timestamp> timestampVector) {
-		this.timestampVector = new ConcurrentHashMap<String, Timestamp>(timestampVector.size());
-		this.timestampVector.putAll(timestampVector);
+	TimestampVector(HostIndex index, long[] seqnums) {
+		this.index = index;
+		this.seqnums = seqnums.clone();
+		computeDigest();
+	}
+
+	/**
+	 * Computes the digest from scratch
+	 */
+	private void computeDigest() {
+		long sum = 0;
+		for (int i = 0; i < seqnums.length; i++) {
+			sum += index.digestTerm(i, seqnums[i]);
+		}
+		digest = sum;
+	}
+
+	/**
+	 * Sets a position of the vector keeping its digest. Must be called holding lock.
+	 * 
+	 * @param i
+	 * @param value
+	 */
+	private void set(int i, long value) {
+		digest += index.digestTerm(i, value) - index.digestTerm(i, seqnums[i]);
+		seqnums[i] = value;
 	}
 
 	/**
@@ -82,10 +121,13 @@ public class TimestampVector implements Serializable {
 	 * @param timestamp
 	 */
 	public void updateTimestamp(Timestamp timestamp) {
-		// Sync by lock
-		{
+		synchronized (lock) {
 			lsim.log(Level.TRACE, "Updating the TimestampVectorInserting with the timestamp: " + timestamp);
-			timestampVector.put(timestamp.getHostid(), timestamp);
+			int ordinal = index.ordinal(timestamp);
+			if (ordinal < 0) {
+				ordinal = addHost(timestamp.getHostid());
+			}
+			set(ordinal, timestamp.getSeqnumber());
 		}
 	}
 
@@ -95,21 +137,31 @@ public class TimestampVector implements Serializable {
 	 * @param tsVector (a timestamp vector)
 	 */
 	public void updateMax(TimestampVector tsVector) {
+		if (tsVector == null) {
+			return;
+		}
+		// elements of tsVector are read without holding its lock: it is only required that each value read is one
+		// that tsVector has held
+		HostIndex otherIndex;
+		long[] other;
+		synchronized (tsVector.lock) {
+			otherIndex = tsVector.index;
+			other = tsVector.seqnums;
+		}
 		synchronized (lock) {
-			if (tsVector == null) {
-				return;
-			}
 			lsim.log(Level.TRACE, "TimestampVector.updateMax");
-			Enumeration<String> keys = timestampVector.keys();
-			while (keys.hasMoreElements()) {
-				String key = keys.nextElement();
-				Timestamp currentMine = timestampVector.get(key);
-				Timestamp currentOther = tsVector.getLast(key);
-				if (currentOther == null) {
-					continue;
+			if (otherIndex == index) {
+				for (int i = 0; i < seqnums.length; i++) {
+					if (seqnums[i] < other[i]) {
+						set(i, other[i]);
+					}
 				}
-				if (currentMine == null || currentMine.isNullTimestamp() || currentMine.compare(currentOther) < 0) {
-					this.updateTimestamp(currentOther);
+			} else {
+				for (int i = 0; i < seqnums.length; i++) {
+					int j = otherIndex.ordinal(index.id(i));
+					if (j >= 0 && seqnums[i] < other[j]) {
+						set(i, other[j]);
+					}
 				}
 			}
 		}
@@ -121,7 +173,13 @@ public class TimestampVector implements Serializable {
 	 * @return the last timestamp issued by node that has been received.
 	 */
 	public Timestamp getLast(String node) {
-		return timestampVector.get(node);
+		synchronized (lock) {
+			int ordinal = index.ordinal(node);
+			if (ordinal < 0) {
+				return null;
+			}
+			return new Timestamp(index.id(ordinal), seqnums[ordinal]);
+		}
 	}
 
 	/**
@@ -131,23 +189,60 @@ public class TimestampVector implements Serializable {
 	 * @param tsVector (timestamp vector)
 	 */
 	public void mergeMin(TimestampVector tsVector) {
+		if (tsVector == null) {
+			return;
+		}
+		// (see updateMax)
+		HostIndex otherIndex;
+		long[] other;
+		synchronized (tsVector.lock) {
+			otherIndex = tsVector.index;
+			other = tsVector.seqnums;
+		}
 		synchronized (lock) {
-			if (tsVector == null) {
-				return;
-			}
-			Enumeration<String> keys = timestampVector.keys();
-			while (keys.hasMoreElements()) {
-				String key = keys.nextElement();
-				Timestamp currentMine = timestampVector.get(key);
-				Timestamp currentOther = tsVector.getLast(key);
-				if (currentOther == null) {
-					continue;
+			if (otherIndex == index) {
+				for (int i = 0; i < seqnums.length; i++) {
+					if (seqnums[i] > other[i]) {
+						set(i, other[i]);
+					}
+				}
+			} else {
+				for (int i = 0; i < seqnums.length; i++) {
+					int j = otherIndex.ordinal(index.id(i));
+					if (j >= 0 && seqnums[i] > other[j]) {
+						set(i, other[j]);
+					}
 				}
-				// If currenOther is null, then the min timestamp is null
-				if (currentMine.compare(currentOther) > 0) {
-					this.updateTimestamp(currentOther);
+			}
+		}
+	}
+
+	/**
+	 * Entries of this vector that changed since base, an older version of it. As entries only grow,
+	 * base.updateMax(delta) gives this vector.
+	 * 
+	 * @param base
+	 * @return a vector with the entries of this one greater than the ones of base and null timestamps in the rest, or
+	 *         null if base has different participants
+	 */
+	public TimestampVector delta(TimestampVector base) {
+		HostIndex baseIndex;
+		long[] baseSeqnums;
+		synchronized (base.lock) {
+			baseIndex = base.index;
+			baseSeqnums = base.seqnums;
+		}
+		synchronized (lock) {
+			if (baseIndex != index) {
+				return null;
+			}
+			TimestampVector delta = new TimestampVector(index);
+			for (int i = 0; i < seqnums.length; i++) {
+				if (seqnums[i] > baseSeqnums[i]) {
+					delta.set(i, seqnums[i]);
 				}
 			}
+			return delta;
 		}
 	}
 
@@ -156,10 +251,155 @@ public class TimestampVector implements Serializable {
 	 */
 	public TimestampVector clone() {
 		synchronized (lock) {
-			return new TimestampVector(timestampVector);
+			return new TimestampVector(index, seqnums);
+		}
+	}
+
+	/**
+	 * Writes this vector in the binary wire format
+	 * 
+	 * @param out
+	 * @param hostids dictionary of the stream
+	 */
+	public void writeTo(DataOutput out, HostIdDictionary hostids) throws IOException {
+		synchronized (lock) {
+			hostids.writeIndex(out, index);
+			writeSeqnumbers(out, seqnums);
+		}
+	}
+
+	public static TimestampVector readFrom(DataInput in, HostIdDictionary hostids) throws IOException {
+		TimestampVector tsVector = new TimestampVector(hostids.readIndex(in));
+		readSeqnumbers(in, tsVector.seqnums);
+		tsVector.computeDigest();
+		return tsVector;
+	}
+
+	/**
+	 * Writes the sequence numbers of rows, one row after the other. When most of them are null timestamps (e.g. in a
+	 * delta) only the other ones are written, each one preceded by its distance to the previous one.
+	 * 
+	 * @param out
+	 * @param rows
+	 */
+	static void writeSeqnumbers(DataOutput out, long[]... rows) throws IOException {
+		int total = 0;
+		int nonNull = 0;
+		for (long[] row : rows) {
+			total += row.length;
+			for (long seqnum : row) {
+				if (seqnum != Timestamp.NULL_TIMESTAMP_SEQ_NUMBER) {
+					nonNull++;
+				}
+			}
+		}
+		BinaryCoding.writeVarInt(out, nonNull);
+		boolean sparse = nonNull < total / 2;
+		int position = 0;
+		int last = -1;
+		for (long[] row : rows) {
+			for (long seqnum : row) {
+				if (!sparse) {
+					Timestamp.writeSeqnumber(out, seqnum);
+				} else if (seqnum != Timestamp.NULL_TIMESTAMP_SEQ_NUMBER) {
+					BinaryCoding.writeVarInt(out, position - last - 1);
+					Timestamp.writeSeqnumber(out, seqnum);
+					last = position;
+				}
+				position++;
+			}
 		}
 	}
 
+	/**
+	 * Reads the sequence numbers written by writeSeqnumbers
+	 * 
+	 * @param in
+	 * @param rows arrays to fill, with the same lengths as the written ones
+	 */
+	static void readSeqnumbers(DataInput in, long[]... rows) throws IOException {
+		int total = 0;
+		for (long[] row : rows) {
+			total += row.length;
+		}
+		// each sequence number takes at least a byte
+		int nonNull = BinaryCoding.readLength(in);
+		if (nonNull >= total / 2) {
+			if (total > BinaryCoding.remaining(in)) {
+				throw new IOException("Truncated sequence numbers: " + total);
+			}
+			for (long[] row : rows) {
+				for (int j = 0; j < row.length; j++) {
+					row[j] = Timestamp.readSeqnumber(in);
+				}
+			}
+			return;
+		}
+		for (long[] row : rows) {
+			Arrays.fill(row, Timestamp.NULL_TIMESTAMP_SEQ_NUMBER);
+		}
+		long position = -1;
+		for (int k = 0; k < nonNull; k++) {
+			position += BinaryCoding.readVarLong(in) + 1;
+			if (position < 0 || position >= total) {
+				throw new IOException("Sequence number out of bounds: " + position);
+			}
+			// all the rows have the same length
+			int width = rows[0].length;
+			rows[(int) (position / width)][(int) (position % width)] = Timestamp.readSeqnumber(in);
+		}
+	}
+
+	/**
+	 * @return a 64-bit digest of the vector: equal vectors have the same digest (also when their participants are
+	 *         indexed in a different order), so two vectors with the same digest are equal with a very high
+	 *         probability
+	 */
+	public long digest() {
+		return digest;
+	}
+
+	/**
+	 * Not private for the rest of TSAE data structures.
+	 * 
+	 * @return the object that synchronizes updates and reads of this vector
+	 */
+	Object getLock() {
+		return lock;
+	}
+
+	/**
+	 * Not private for the rest of TSAE data structures. Together with getSeqnumbers() gives access to the internal
+	 * representation of a vector not shared with other threads (e.g. a clone).
+	 * 
+	 * @return the index that maps nodes to positions of this vector
+	 */
+	HostIndex getHostIndex() {
+		return index;
+	}
+
+	/**
+	 * Not private for the rest of TSAE data structures.
+	 * 
+	 * @return the sequence numbers of this vector, indexed by the ordinals of getHostIndex()
+	 */
+	long[] getSeqnumbers() {
+		return seqnums;
+	}
+
+	/**
+	 * Adds a node that was not a participant when the vector was created
+	 * 
+	 * @param hostid
+	 * @return ordinal of the new node
+	 */
+	private int addHost(String hostid) {
+		index = index.extend(hostid);
+		seqnums = Arrays.copyOf(seqnums, index.size());
+		seqnums[seqnums.length - 1] = Timestamp.NULL_TIMESTAMP_SEQ_NUMBER;
+		return seqnums.length - 1;
+	}
+
 	/**
 	 * equals
 	 */
@@ -174,7 +414,27 @@ public class TimestampVector implements Serializable {
 			return false;
 		}
 		TimestampVector other = (TimestampVector) obj;
-		return this.timestampVector.equals(other.timestampVector);
+		HostIndex otherIndex;
+		long[] otherSeqnums;
+		synchronized (other.lock) {
+			otherIndex = other.index;
+			otherSeqnums = other.seqnums;
+		}
+		synchronized (lock) {
+			if (otherIndex == index) {
+				return Arrays.equals(seqnums, otherSeqnums);
+			}
+			if (otherIndex.size() != index.size()) {
+				return false;
+			}
+			for (int i = 0; i < seqnums.length; i++) {
+				int j = otherIndex.ordinal(index.id(i));
+				if (j < 0 || seqnums[i] != otherSeqnums[j]) {
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 
 	/**
@@ -183,27 +443,14 @@ public class TimestampVector implements Serializable {
 	@Override
 	public synchronized String toString() {
 		String all = "";
-		if (timestampVector == null) {
+		if (seqnums == null) {
 			return all;
 		}
-		for (String name : getSortedKeys()) {
-			if (timestampVector.get(name) != null)
-				all += timestampVector.get(name) + "\n";
+		synchronized (lock) {
+			for (int ordinal : index.sortedOrdinals()) {
+				all += new Timestamp(index.id(ordinal), seqnums[ordinal]) + "\n";
+			}
 		}
 		return all;
 	}
-
-	/**
-	 * Method to return log keys sorted by name
-	 * 
-	 * @return
-	 */
-	private List<String> getSortedKeys() {
-		List<String> sortedKeys = new ArrayList<String>();
-		for (Enumeration<String> en = timestampVector.keys(); en.hasMoreElements();) {
-			sortedKeys.add(en.nextElement());
-		}
-		Collections.sort(sortedKeys);
-		return sortedKeys;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.data_structures;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Timestamps of the recipes removed by a remove operation received before the add operation of the recipe. When the
+ * add operation is received, its recipe must not be added.
+ * 
+ * A tombstone is kept across sessions until the add operation of its recipe has been acknowledged by all the members
+ * of the group (see purge()): by then it has been received by this node, so the tombstone is no longer needed.
+ * 
+ * Not thread safe.
+ */
+public class Tombstones {
+	private Set<Timestamp> timestamps = new HashSet<Timestamp>();
+
+	/**
+	 * @param recipeTimestamp timestamp of a removed recipe whose add operation has not been received
+	 */
+	public void add(Timestamp recipeTimestamp) {
+		timestamps.add(recipeTimestamp);
+	}
+
+	/**
+	 * @param recipeTimestamp
+	 * @return true if there was a tombstone for recipeTimestamp (then, it is removed)
+	 */
+	public boolean remove(Timestamp recipeTimestamp) {
+		return timestamps.remove(recipeTimestamp);
+	}
+
+	public int size() {
+		return timestamps.size();
+	}
+
+	/**
+	 * Removes the tombstones of the recipes whose add operation has been acknowledged by all the members of the
+	 * group, according to the provided ack (as Log.purgeLog())
+	 * 
+	 * @param ack
+	 */
+	public void purge(TimestampMatrix ack) {
+		if (timestamps.isEmpty()) {
+			return;
+		}
+		TimestampVector ackVector = ack.minTimestampVector();
+		for (Iterator<Timestamp> it = timestamps.iterator(); it.hasNext();) {
+			Timestamp timestamp = it.next();
+			Timestamp acknowledged = ackVector.getLast(timestamp.getHostid());
+			if (acknowledged != null && timestamp.compare(acknowledged) <= 0) {
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return timestamps.toString();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.List;
+import java.util.Random;
+
+import recipes_service.ReplicaSnapshot;
+import recipes_service.ServerData;
+import recipes_service.communication.Host;
+import recipes_service.communication.PartnerSelectionStrategy;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Chooses partners at random giving more chances to the ones that are further behind: a partner is weighted by the
+ * number of local operations that, according to the local ack, it has not received yet (plus one, so every partner
+ * can be chosen). As the ack row of a partner is updated when a session with it (or with a node that has heard from
+ * it) ends, partners not contacted for a long time are the most likely to be chosen, which spreads updates faster
+ * and lets the log be purged earlier.
+ * 
+ * Partners are chosen by weighted sampling without replacement (each one gets the key u^(1/weight), with u uniform
+ * in [0, 1), and the ones with the largest keys are chosen, in decreasing order of key), in a single pass. The lags
+ * of all the partners are computed at once (see TimestampMatrix.lags) into buffers reused between calls, and, with
+ * apply loop, from the last published snapshot, so selecting partners neither allocates nor copies the ack.
+ */
+public class AckStalenessPartnerSelection implements PartnerSelectionStrategy {
+
+	private ServerData serverData;
+	private Random rnd = new Random();
+
+	// scratch buffers: lag of each participant (see TimestampMatrix.lags) and keys of the selected partners
+	private long[] lags = null;
+	private double[] keys = new double[0];
+
+	public AckStalenessPartnerSelection(ServerData serverData) {
+		this.serverData = serverData;
+	}
+
+	@Override
+	public synchronized void select(List<Host> partners, int num, List<Host> selected) {
+		int size = partners.size();
+		num = Math.max(0, Math.min(num, size));
+		if (num == 0) {
+			return;
+		}
+		TimestampVector summary = serverData.getSummary();
+		TimestampMatrix ack = serverData.getAck();
+		if (serverData.isApplyLoop()) {
+			ReplicaSnapshot snapshot = serverData.lastSnapshot();
+			summary = snapshot.getSummary();
+			ack = snapshot.getAck();
+		}
+		lags = ack.lags(summary, lags);
+		// lag of a node that is not a participant
+		int others = lags.length - 1;
+		if (keys.length < num) {
+			keys = new double[num];
+		}
+		// keys of the selected partners, in decreasing order; log(u) / weight is used as it has the same order
+		int first = selected.size();
+		for (int i = 0; i < size; i++) {
+			Host partner = partners.get(i);
+			int ordinal = ack.ordinal(partner.getId());
+			long lag = ordinal < 0 || ordinal >= others ? lags[others] : lags[ordinal];
+			double key = Math.log(rnd.nextDouble()) / (1 + lag);
+			int position = selected.size() - first;
+			if (position == num) {
+				if (key <= keys[num - 1]) {
+					continue;
+				}
+				// the partner replaces the last selected one
+				selected.remove(first + --position);
+			}
+			while (position > 0 && keys[position - 1] < key) {
+				keys[position] = keys[position - 1];
+				position--;
+			}
+			keys[position] = key;
+			selected.add(first + position, partner);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.uoc.dpcs.lsim.LSimFactory;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+//LSim logging system imports sgeag@2017
+import lsim.worker.LSimWorker;
+import recipes_service.ServerData;
+
+/**
+ * Schedules the rounds of TSAE sessions of the originator side adapting their period and number of partners to the
+ * divergence observed (the operations exchanged in the previous round), instead of using a fixed rate:
+ * <ul>
+ * <li>after a round that exchanged operations, the period is halved (down to a quarter of sessionPeriod) and the
+ * next round is done with twice numberSessions partners, so updates spread faster after bursts;</li>
+ * <li>after a round without operations, the period grows by half (up to four times sessionPeriod) and the next
+ * round is done with numberSessions partners, so converged nodes do few idle sessions.</li>
+ * </ul>
+ * Each delay has a random jitter of +/-20%, and the first one a random extra delay of up to a period, so nodes
+ * started together do not do their sessions in lockstep.
+ * 
+ * Rounds are done one after the other on the thread of the scheduler.
+ */
+public class AdaptiveSessionScheduler {
+	// Needed for the logging system sgeag@2017
+	private LSimWorker lsim = LSimFactory.getWorkerInstance();
+
+	private static final double JITTER = 0.2;
+	private static final int MIN_PERIOD_DIVISOR = 4;
+	private static final int MAX_PERIOD_FACTOR = 4;
+
+	private ServerData serverData;
+	private TSAESessionOriginatorSide tsae;
+	private ScheduledExecutorService scheduler;
+	private Random rnd = new Random();
+
+	// current period (milliseconds) and number of partners of the next round
+	private long period;
+	private int partners;
+
+	public AdaptiveSessionScheduler(ServerData serverData, TSAESessionOriginatorSide tsae) {
+		this.serverData = serverData;
+		this.tsae = tsae;
+	}
+
+	/**
+	 * @param delay delay (milliseconds) before the first round
+	 * @param period initial period (milliseconds)
+	 */
+	public synchronized void start(long delay, long period) {
+		this.period = Math.max(1, period);
+		this.partners = serverData.getNumberSessions();
+		this.scheduler = SessionExecutors.newScheduler("TSAESessionTimer");
+		schedule(delay + (long) (rnd.nextDouble() * this.period));
+	}
+
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	private synchronized void schedule(long delay) {
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					round();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// stopped
+		}
+	}
+
+	private void round() {
+		int num;
+		synchronized (this) {
+			num = partners;
+		}
+		try {
+			tsae.sessionWithN(num);
+		} finally {
+			scheduleNext(tsae.takeOperationsExchanged());
+		}
+	}
+
+	/**
+	 * Adapts period and number of partners to the operations exchanged in the last round and schedules the next one
+	 * 
+	 * @param exchanged
+	 */
+	private void scheduleNext(int exchanged) {
+		long delay;
+		synchronized (this) {
+			long basePeriod = Math.max(1, serverData.getSessionPeriod());
+			if (exchanged > 0) {
+				period = Math.max(basePeriod / MIN_PERIOD_DIVISOR, period / 2);
+				partners = 2 * serverData.getNumberSessions();
+			} else {
+				period = Math.min(basePeriod * MAX_PERIOD_FACTOR, period + Math.max(1, period / 2));
+				partners = serverData.getNumberSessions();
+			}
+			delay = (long) (period * (1 + JITTER * (2 * rnd.nextDouble() - 1)));
+			lsim.log(Level.TRACE, "[AdaptiveSessionScheduler] [" + Thread.currentThread() + "] " + exchanged
+					+ " operations exchanged: next round in " + delay + " ms with " + partners + " partners");
+		}
+		schedule(delay);
+	}
+}
@@ -0,0 +1,288 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import communication.ObjectInputStream_DS;
+import communication.ObjectOutputStream_DS;
+import recipes_service.ServerData;
+import recipes_service.activity_simulation.SimulationData;
+import recipes_service.communication.Host;
+import recipes_service.communication.WireFormat;
+
+/**
+ * Connections used by the originator side of TSAE sessions. When pooling is enabled in serverData, connections (the
+ * socket and its streams, including their state) are kept after a session ends and reused by later sessions with
+ * the same partner; otherwise each session opens a new connection that is closed at the end.
+ * 
+ * Idle connections are closed when they have not been used for the idle timeout, when they are not healthy (closed
+ * or with unexpected data from the partner) and when the server gets disconnected.
+ */
+public class ConnectionPool {
+	// maximum number of idle connections kept for each partner
+	private static final int MAX_IDLE_PER_HOST = 2;
+
+	private ServerData serverData;
+
+	// idle connections; the most recently used one is the first
+	private Map<Host, LinkedList<Connection>> idle = new HashMap<Host, LinkedList<Connection>>();
+
+	// incremented each time all connections are invalidated: connections from a previous epoch are not reused
+	private int epoch = 0;
+
+	public ConnectionPool(ServerData serverData) {
+		this.serverData = serverData;
+		SimulationData.getInstance().addDisconnectionListener(new Runnable() {
+			public void run() {
+				invalidateAll();
+			}
+		});
+	}
+
+	/**
+	 * @param host
+	 * @param timeout timeout (in milliseconds) for connecting and for each read; 0: no timeout
+	 * @return an idle healthy connection to host or, if there is none, a new one
+	 * @throws IOException
+	 */
+	Connection borrow(Host host, int timeout) throws IOException {
+		Connection connection = null;
+		if (serverData.isConnectionPooling()) {
+			connection = takeIdle(host);
+		}
+		if (connection == null) {
+			return open(host, timeout);
+		}
+		connection.socket.setSoTimeout(timeout);
+		return connection;
+	}
+
+	/**
+	 * @param host
+	 * @param timeout timeout (in milliseconds) for connecting and for each read; 0: no timeout
+	 * @return a new connection to host
+	 * @throws IOException
+	 */
+	Connection open(Host host, int timeout) throws IOException {
+		int connectionEpoch;
+		synchronized (this) {
+			connectionEpoch = epoch;
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host.getAddress(), host.getPort()), timeout);
+			socket.setSoTimeout(timeout);
+			WireFormat wireFormat = serverData.getWireFormat();
+			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream(), wireFormat.newCodec());
+			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream(),
+					wireFormat.newCodec(serverData.isOperationCache()));
+			return new Connection(host, socket, in, out, connectionEpoch);
+		} catch (IOException e) {
+			close(socket);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection after a session that ended properly. It is kept for later sessions if pooling is enabled
+	 * and the connection can be reused; otherwise it is closed.
+	 * 
+	 * @param connection
+	 */
+	void release(Connection connection) {
+		if (!serverData.isConnectionPooling() || !SimulationData.getInstance().isConnected()) {
+			invalidate(connection);
+			return;
+		}
+		try {
+			// next session should not refer to objects sent in this one
+			connection.out.reset();
+		} catch (IOException e) {
+			invalidate(connection);
+			return;
+		}
+		connection.lastUsed = System.currentTimeMillis();
+		connection.reused = true;
+		List<Connection> toClose = new ArrayList<Connection>();
+		synchronized (this) {
+			if (connection.epoch != epoch) {
+				toClose.add(connection);
+			} else {
+				LinkedList<Connection> connections = idle.get(connection.host);
+				if (connections == null) {
+					connections = new LinkedList<Connection>();
+					idle.put(connection.host, connections);
+				}
+				connections.addFirst(connection);
+				while (connections.size() > MAX_IDLE_PER_HOST) {
+					toClose.add(connections.removeLast());
+				}
+			}
+		}
+		for (Connection c : toClose) {
+			close(c);
+		}
+	}
+
+	/**
+	 * Closes a connection that should not be reused (e.g. after an error)
+	 * 
+	 * @param connection
+	 */
+	void invalidate(Connection connection) {
+		close(connection);
+	}
+
+	/**
+	 * Closes all idle connections. Connections in use are closed when they are returned.
+	 */
+	public void invalidateAll() {
+		List<Connection> toClose = new ArrayList<Connection>();
+		synchronized (this) {
+			epoch++;
+			for (LinkedList<Connection> connections : idle.values()) {
+				toClose.addAll(connections);
+			}
+			idle.clear();
+		}
+		for (Connection c : toClose) {
+			close(c);
+		}
+	}
+
+	/**
+	 * Takes the most recently used healthy connection to host, and evicts the idle connections (to any host) that are
+	 * not healthy
+	 * 
+	 * @param host
+	 * @return the connection or null if there is none
+	 */
+	private Connection takeIdle(Host host) {
+		long now = System.currentTimeMillis();
+		Connection connection = null;
+		List<Connection> toClose = new ArrayList<Connection>();
+		synchronized (this) {
+			Iterator<LinkedList<Connection>> lists = idle.values().iterator();
+			while (lists.hasNext()) {
+				LinkedList<Connection> connections = lists.next();
+				Iterator<Connection> it = connections.iterator();
+				while (it.hasNext()) {
+					Connection c = it.next();
+					if (!isHealthy(c, now)) {
+						it.remove();
+						toClose.add(c);
+					}
+				}
+				if (connections.isEmpty()) {
+					lists.remove();
+				}
+			}
+			LinkedList<Connection> connections = idle.get(host);
+			if (connections != null) {
+				connection = connections.removeFirst();
+				if (connections.isEmpty()) {
+					idle.remove(host);
+				}
+			}
+		}
+		for (Connection c : toClose) {
+			close(c);
+		}
+		return connection;
+	}
+
+	/**
+	 * Must be called holding the lock of the pool
+	 * 
+	 * @param connection
+	 * @param now
+	 * @return true if an idle connection can be reused
+	 */
+	private boolean isHealthy(Connection connection, long now) {
+		Socket socket = connection.socket;
+		if (connection.epoch != epoch || now - connection.lastUsed > serverData.getConnectionIdleTimeout()
+				|| socket.isClosed() || !socket.isConnected() || socket.isInputShutdown()
+				|| socket.isOutputShutdown()) {
+			return false;
+		}
+		try {
+			// partners don't send anything between sessions
+			return socket.getInputStream().available() == 0;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void close(Connection connection) {
+		try {
+			connection.in.close();
+		} catch (IOException e) {
+		}
+		try {
+			connection.out.close();
+		} catch (IOException e) {
+		}
+		close(connection.socket);
+	}
+
+	private static void close(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * A connection to a partner and its streams
+	 */
+	static class Connection {
+		private Host host;
+		private Socket socket;
+		final ObjectInputStream_DS in;
+		final ObjectOutputStream_DS out;
+		private int epoch;
+		private long lastUsed;
+		// true when the connection has already been used in a previous session
+		private boolean reused = false;
+
+		private Connection(Host host, Socket socket, ObjectInputStream_DS in, ObjectOutputStream_DS out, int epoch) {
+			this.host = host;
+			this.socket = socket;
+			this.in = in;
+			this.out = out;
+			this.epoch = epoch;
+		}
+
+		boolean isReused() {
+			return reused;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import recipes_service.ServerData;
+import recipes_service.communication.PartnerSelectionStrategy;
+import recipes_service.communication.RandomPartnerSelection;
+
+/**
+ * Strategy used to choose the partners of the rounds of TSAE sessions.
+ * 
+ * RANDOM: uniformly at random (default). ACK_STALENESS: at random, weighted by how far behind each partner is
+ * according to the local ack (see AckStalenessPartnerSelection).
+ */
+public enum PartnerSelection {
+	RANDOM, ACK_STALENESS;
+
+	/**
+	 * @param serverData
+	 * @return a new strategy for the partners of serverData
+	 */
+	public PartnerSelectionStrategy newStrategy(ServerData serverData) {
+		return this == ACK_STALENESS ? new AckStalenessPartnerSelection(serverData) : new RandomPartnerSelection();
+	}
+}
@@ -0,0 +1,308 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.uoc.dpcs.lsim.LSimFactory;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+//LSim logging system imports sgeag@2017
+import lsim.worker.LSimWorker;
+import recipes_service.ReplicaSnapshot;
+import recipes_service.ServerData;
+import recipes_service.communication.Message;
+import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageDigest;
+import recipes_service.communication.MessageEndTSAE;
+import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.communication.MessageResendSummary;
+import recipes_service.communication.MsgType;
+import recipes_service.communication.WireFormat;
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Partner side of a TSAE session as a state machine: each message received from the originator is passed to
+ * receive(), which returns the messages to send back. It does not do any I/O, so it is used both by the
+ * thread-per-session server (TSAESessionPartnerSide) and by the non-blocking one (NioServerPartnerSide).
+ * 
+ * In a full-duplex session (requested by the originator in its AE request) the replies to the AE request are the
+ * local summary and ack, the operations and the "end of TSAE session" message, so the originator can send its
+ * operations while it receives these ones.
+ * 
+ * The originator may start the session with the digests of its summary and ack (MessageDigest). The reply is the
+ * local digests: if they are equal the session ends without exchanging anything else; otherwise the originator goes
+ * on with its AE request.
+ * 
+ * With delta summaries, the AE requests of both sides may only carry the entries of summary and ack changed since
+ * a baseline (see SummaryBaselines). When the deltas received can not be rebuilt, the other side is asked to resend
+ * them complete (MessageResendSummary) and the session goes on.
+ * 
+ * Once the session has ended (isEnded()) and the replies have been sent, applyOperations() adds the operations
+ * received from the originator to the local data structures (with streaming apply, most of them have already been
+ * added as they were received, see ReceivedOperations). An originator that pools its connections may then
+ * start another session on the same connection, which requires a new PartnerSession.
+ */
+public class PartnerSession {
+	// Needed for the logging system sgeag@2017
+	private LSimWorker lsim = LSimFactory.getWorkerInstance();
+
+	private enum State {
+		WAITING_AE_REQUEST, RECEIVING_OPERATIONS, ENDED
+	}
+
+	private ServerData serverData;
+
+	private State state = State.WAITING_AE_REQUEST;
+	private int current_session_number = -1;
+
+	// received from originator
+	private TimestampVector originatorSummary;
+	private TimestampMatrix originatorAck;
+	// id of the originator when summaries are sent as deltas (null otherwise)
+	private String originatorId;
+	// local summary and ack sent to the originator
+	private TimestampVector localSummary;
+	private TimestampMatrix localAck;
+	private ReceivedOperations operationsReceived;
+	private boolean endReceived = false;
+	// the digests of both sides were equal: no operations to apply
+	private boolean upToDate = false;
+	private boolean fullDuplex = false;
+	// true when both sides support compression: replies are compressed
+	private boolean compressReplies = false;
+
+	public PartnerSession(ServerData serverData) {
+		this.serverData = serverData;
+	}
+
+	/**
+	 * @param msg message received from the originator
+	 * @return messages to send to the originator (in order)
+	 */
+	public List<Message> receive(Message msg) {
+		String currentThread = Thread.currentThread().toString();
+		lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: " + msg.getSessionNumber()
+				+ "] received message: " + msg);
+
+		switch (state) {
+		case WAITING_AE_REQUEST:
+			current_session_number = msg.getSessionNumber();
+			lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
+					+ current_session_number + "] TSAE session");
+			if (msg.type() == MsgType.DIGEST) {
+				return receiveDigest((MessageDigest) msg);
+			}
+			if (msg.type() != MsgType.AE_REQUEST) {
+				state = State.ENDED;
+				return Collections.emptyList();
+			}
+			return receiveAErequest((MessageAErequest) msg);
+		case RECEIVING_OPERATIONS:
+			if (msg.type() == MsgType.RESEND_SUMMARY) {
+				// the originator could not rebuild the deltas of the summary and ack sent
+				return Collections.<Message> singletonList(completeAErequest());
+			}
+			if (msg.type() == MsgType.OPERATION) {
+				operationsReceived.add(((MessageOperation) msg).getOperation());
+				return Collections.emptyList();
+			}
+			if (msg.type() == MsgType.OPERATION_BATCH) {
+				operationsReceived.addAll(((MessageOperationBatch) msg).getOperations());
+				return Collections.emptyList();
+			}
+			state = State.ENDED;
+			// receive message to inform about the ending of the TSAE session
+			if (msg.type() == MsgType.END_TSAE) {
+				endReceived = true;
+				if (fullDuplex) {
+					// the "end of TSAE session" message was already sent after the operations
+					return Collections.emptyList();
+				}
+				// send and "end of TSAE session" message
+				Message end = new MessageEndTSAE();
+				end.setSessionNumber(current_session_number);
+				return Collections.singletonList(end);
+			}
+			return Collections.emptyList();
+		default:
+			return Collections.emptyList();
+		}
+	}
+
+	private List<Message> receiveDigest(MessageDigest msg) {
+		MessageDigest localDigest = localDigest(serverData);
+		localDigest.setSessionNumber(current_session_number);
+		if (localDigest.matches(msg)) {
+			lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + Thread.currentThread() + "] [session: "
+					+ current_session_number + "] same summary and ack as the originator");
+			state = State.ENDED;
+			endReceived = true;
+			upToDate = true;
+		}
+		// otherwise, wait for the AE request
+		return Collections.<Message> singletonList(localDigest);
+	}
+
+	/**
+	 * The row of the local node in the ack is kept equal to the local summary by ServerData whenever the summary
+	 * changes. Otherwise two nodes with the same summary and the same outdated ack would skip all their sessions and
+	 * the log would never be purged. Both digests are maintained incrementally, so no lock is taken (and, with apply
+	 * loop, no snapshot is needed).
+	 * 
+	 * @param serverData
+	 * @return digests of the local summary and ack
+	 */
+	static MessageDigest localDigest(ServerData serverData) {
+		return new MessageDigest(serverData.getSummary().digest(), serverData.getAck().digest());
+	}
+
+	private List<Message> receiveAErequest(MessageAErequest msg) {
+		// delta summaries (see SummaryBaselines)
+		boolean deltaSummaries = serverData.isDeltaSummaries() && serverData.getWireFormat() == WireFormat.BINARY;
+		if (deltaSummaries ? !serverData.getSummaryBaselines().receive(msg) : msg.isDelta()) {
+			lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + Thread.currentThread() + "] [session: "
+					+ current_session_number + "] summary and ack can not be rebuilt from the deltas received");
+			// wait for the complete ones
+			Message reply = new MessageResendSummary();
+			reply.setSessionNumber(current_session_number);
+			return Collections.singletonList(reply);
+		}
+		state = State.RECEIVING_OPERATIONS;
+		operationsReceived = new ReceivedOperations(serverData, current_session_number);
+		originatorId = deltaSummaries ? msg.getSenderId() : null;
+		originatorSummary = msg.getSummary();
+		originatorAck = msg.getAck();
+		fullDuplex = msg.isFullDuplex();
+		compressReplies = msg.isCompression() && serverData.isCompression()
+				&& serverData.getWireFormat() == WireFormat.BINARY;
+
+		// send to originator: local's summary and ack
+		// (copied to prevent concurrent modification)
+		ReplicaSnapshot snapshot = serverData.snapshot();
+		localSummary = snapshot.getSummary();
+		localAck = snapshot.getAck();
+		List<Operation> operationsToSend = snapshot.getLog().listNewer(originatorSummary);
+
+		List<Message> replies = new ArrayList<Message>();
+		Message reply;
+		MessageAErequest aeRequest;
+		if (originatorId != null) {
+			aeRequest = serverData.getSummaryBaselines().newAErequest(serverData.getId(), originatorId, localSummary,
+					localAck, false, msg.getBaselineDigest());
+		} else {
+			aeRequest = new MessageAErequest(localSummary, localAck);
+		}
+		aeRequest.setCompression(compressReplies);
+		aeRequest.setSessionNumber(current_session_number);
+		if (fullDuplex) {
+			// summary and ack first, so the originator starts sending its operations while it receives these ones
+			replies.add(aeRequest);
+		}
+		int batchSize = Math.max(1, serverData.getOperationBatchSize());
+		for (int i = 0; i < operationsToSend.size(); i += batchSize) {
+			if (batchSize == 1) {
+				reply = new MessageOperation(operationsToSend.get(i));
+			} else {
+				reply = new MessageOperationBatch(
+						operationsToSend.subList(i, Math.min(i + batchSize, operationsToSend.size())));
+			}
+			reply.setSessionNumber(current_session_number);
+			replies.add(reply);
+		}
+
+		if (fullDuplex) {
+			reply = new MessageEndTSAE();
+			reply.setSessionNumber(current_session_number);
+			replies.add(reply);
+		} else {
+			replies.add(aeRequest);
+		}
+		return replies;
+	}
+
+	/**
+	 * @return an AE request with the complete local summary and ack sent before (as deltas)
+	 */
+	private MessageAErequest completeAErequest() {
+		MessageAErequest aeRequest;
+		if (originatorId != null) {
+			aeRequest = serverData.getSummaryBaselines().newCompleteAErequest(serverData.getId(), originatorId,
+					localSummary, localAck, false);
+		} else {
+			aeRequest = new MessageAErequest(localSummary, localAck);
+		}
+		aeRequest.setCompression(compressReplies);
+		aeRequest.setSessionNumber(current_session_number);
+		return aeRequest;
+	}
+
+	/**
+	 * @return true when the replies should be compressed: both sides support compression (the AE request of the
+	 *         originator asked for it and the local server has it enabled)
+	 */
+	public boolean compressReplies() {
+		return compressReplies;
+	}
+
+	/**
+	 * @return true when the originator asked for a full-duplex session: the replies to its AE request may be sent
+	 *         while its operations are received
+	 */
+	public boolean isFullDuplex() {
+		return fullDuplex;
+	}
+
+	/**
+	 * @return true when no more messages are expected from the originator
+	 */
+	public boolean isEnded() {
+		return state == State.ENDED;
+	}
+
+	/**
+	 * Adds the operations received from the originator to the local data structures. Only done if the session ended
+	 * properly (the originator sent an END_TSAE message), except for the batches already applied with streaming
+	 * apply.
+	 * 
+	 * @return true if the session ended properly: the connection can be used for another session
+	 */
+	public boolean applyOperations() {
+		if (!endReceived) {
+			return false;
+		}
+		endReceived = false;
+		if (upToDate) {
+			return true;
+		}
+		operationsReceived.end(originatorSummary, originatorAck);
+		return true;
+	}
+
+	public int getSessionNumber() {
+		return current_session_number;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.uoc.dpcs.lsim.LSimFactory;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+//LSim logging system imports sgeag@2017
+import lsim.worker.LSimWorker;
+import recipes_service.ServerData;
+
+/**
+ * Asynchronous propagation of local writes. Instead of doing TSAE sessions on the thread that made the write, each
+ * write is added to the queue, and the writes made within a window (serverData.getPropagationWindow()) since the
+ * first one are propagated together by a single round of sessions with propagationDegree partners, done on the
+ * thread of the queue.
+ * 
+ * Writes made while a round is running are propagated by the next one, which starts (at least) a window later.
+ */
+public class PropagationQueue {
+	// Needed for the logging system sgeag@2017
+	private LSimWorker lsim = LSimFactory.getWorkerInstance();
+
+	private ServerData serverData;
+
+	// thread that runs the propagation rounds (created on first use)
+	private ScheduledExecutorService scheduler = null;
+
+	// writes not propagated yet: when there are some, a round is scheduled
+	private int pendingWrites = 0;
+
+	public PropagationQueue(ServerData serverData) {
+		this.serverData = serverData;
+	}
+
+	/**
+	 * Adds a local write: it will be propagated to propagationDegree partners when the window of the first pending
+	 * write expires
+	 */
+	public synchronized void add() {
+		if (pendingWrites++ > 0) {
+			return;
+		}
+		if (scheduler == null) {
+			scheduler = SessionExecutors.newScheduler("PropagationThread");
+		}
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+					propagate();
+				}
+			}, serverData.getPropagationWindow(), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			pendingWrites = 0;
+		}
+	}
+
+	/**
+	 * Propagates the pending writes
+	 */
+	private void propagate() {
+		int writes;
+		synchronized (this) {
+			writes = pendingWrites;
+			pendingWrites = 0;
+		}
+		lsim.log(Level.TRACE, "[PropagationQueue] [" + Thread.currentThread() + "] propagating " + writes
+				+ " writes");
+		serverData.getTSAESessionOriginatorSide().sessionWithN(serverData.getPropagationDegree());
+	}
+}
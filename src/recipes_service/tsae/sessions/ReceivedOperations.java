@@ -0,0 +1,93 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import recipes_service.ServerData;
+import recipes_service.data.Operation;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Operations received during a TSAE session (by either side).
+ * 
+ * By default they are kept until the session ends properly and then applied all together
+ * (ServerData.endOperationQueue()). With streaming apply, they are applied in batches (of
+ * streamingApplyBatch operations) as they are received: only a batch is kept in memory, operations are visible
+ * sooner and, if the session is cut off, the batches already applied are kept. The ack is only updated (and the log
+ * purged) when the session ends properly.
+ * 
+ * Not thread safe: used by the thread of the session.
+ */
+class ReceivedOperations {
+	private ServerData serverData;
+	private int sessionNumber;
+	private boolean streaming;
+	private int batchSize;
+
+	// operations not applied yet
+	private List<Operation> operations = new ArrayList<Operation>();
+	private int count = 0;
+
+	ReceivedOperations(ServerData serverData, int sessionNumber) {
+		this.serverData = serverData;
+		this.sessionNumber = sessionNumber;
+		this.streaming = serverData.isStreamingApply();
+		this.batchSize = Math.max(1, serverData.getStreamingApplyBatch());
+	}
+
+	void add(Operation operation) {
+		operations.add(operation);
+		count++;
+		if (streaming && operations.size() >= batchSize) {
+			serverData.applyOperations(sessionNumber, operations);
+			operations.clear();
+		}
+	}
+
+	void addAll(List<Operation> operations) {
+		for (Operation operation : operations) {
+			add(operation);
+		}
+	}
+
+	/**
+	 * Applies the operations not applied yet and ends the processing of the session (see
+	 * ServerData.endOperationQueue())
+	 * 
+	 * @param summary summary of the partner
+	 * @param ack ack of the partner
+	 */
+	void end(TimestampVector summary, TimestampMatrix ack) {
+		serverData.endOperationQueue(sessionNumber, summary, ack, operations);
+		operations.clear();
+	}
+
+	/**
+	 * @return number of operations received
+	 */
+	int size() {
+		return count;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.uoc.dpcs.lsim.LSimFactory;
+import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
+
+/**
+ * Executors that run TSAE sessions.
+ * 
+ * With virtual threads each session runs on its own virtual thread, so a large number of concurrent sessions use
+ * little memory. Virtual threads are created by reflection (Executors.newVirtualThreadPerTaskExecutor()) because the
+ * code is compiled for older JVMs; when they are not available sessions run on a pool of platform threads that
+ * grows on demand and reuses idle threads.
+ */
+public class SessionExecutors {
+
+	/**
+	 * @param virtualThreads true to run each task on a virtual thread (when the JVM supports them)
+	 * @param name prefix of the names of the platform threads
+	 * @return a new executor
+	 */
+	public static ExecutorService newExecutor(boolean virtualThreads, String name) {
+		if (virtualThreads) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException | UnsupportedOperationException e) {
+				LSimFactory.getWorkerInstance().log(Level.WARN,
+						"[SessionExecutors] virtual threads are not available in this JVM: using platform threads");
+			}
+		}
+		return Executors.newCachedThreadPool(new NamedThreadFactory(name));
+	}
+
+	/**
+	 * @param name name of the thread
+	 * @return a new scheduler that runs its tasks, one after the other, on a daemon platform thread
+	 */
+	public static ScheduledExecutorService newScheduler(String name) {
+		return Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+	}
+
+	/**
+	 * Creates daemon threads named prefix-1, prefix-2, ...
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+		private String prefix;
+		private AtomicInteger count = new AtomicInteger(0);
+
+		NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
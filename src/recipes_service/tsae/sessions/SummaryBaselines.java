@@ -0,0 +1,188 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package recipes_service.tsae.sessions;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import recipes_service.communication.MessageAErequest;
+import recipes_service.tsae.data_structures.TimestampMatrix;
+import recipes_service.tsae.data_structures.TimestampVector;
+
+/**
+ * Delta summaries: instead of the complete summary and ack, the AE request sent to a partner only has the entries
+ * that changed since a summary and ack sent before (a baseline). For each partner, the last few summaries and acks
+ * sent to it and received from it are kept, identified by their digest, so concurrent sessions with the same partner
+ * (in either role) do not replace each other's baselines.
+ * 
+ * A delta is only sent relative to a baseline the partner has confirmed it holds: each AE request carries the id of
+ * its sender and the digest of the last summary and ack it received from the receiver. A delta carries the digest of
+ * its baseline and the digests of the complete summary and ack, so the receiver rebuilds and checks them. If it can
+ * not (e.g. the baseline has been evicted), it asks the sender to resend them complete (MessageResendSummary) and the
+ * session goes on.
+ */
+public class SummaryBaselines {
+	// baselines kept for each partner and direction
+	private static final int MAX_BASELINES = 4;
+
+	private static class Baseline {
+		private TimestampVector summary;
+		private TimestampMatrix ack;
+
+		private Baseline(TimestampVector summary, TimestampMatrix ack) {
+			this.summary = summary;
+			this.ack = ack;
+		}
+
+		private long digest() {
+			return summary.digest() * 31 + ack.digest();
+		}
+	}
+
+	/**
+	 * Last baselines sent to or received from a partner, by digest
+	 */
+	private static class Baselines extends LinkedHashMap<Long, Baseline> {
+		private static final long serialVersionUID = 3969221640530389581L;
+
+		// sent: last baseline confirmed by the partner; received: last one received (null if none)
+		private Long last;
+
+		private void add(Baseline baseline) {
+			remove(baseline.digest());
+			put(baseline.digest(), baseline);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Baseline> eldest) {
+			return size() > MAX_BASELINES;
+		}
+	}
+
+	// summaries and acks sent to each partner
+	private Map<String, Baselines> sent = new HashMap<String, Baselines>();
+	// summaries and acks received from each partner
+	private Map<String, Baselines> received = new HashMap<String, Baselines>();
+
+	/**
+	 * @param localId
+	 * @param partnerId
+	 * @param summary local summary (not modified afterwards, e.g. a clone)
+	 * @param ack local ack (not modified afterwards, e.g. a clone)
+	 * @param fullDuplex
+	 * @param partnerBaseline digest of a baseline the partner has just confirmed (e.g. in the AE request being
+	 *            answered); null to use the last one confirmed
+	 * @return an AE request to send to partnerId: with the entries changed since a baseline confirmed by the partner,
+	 *         if any, with the complete summary and ack otherwise
+	 */
+	synchronized MessageAErequest newAErequest(String localId, String partnerId, TimestampVector summary,
+			TimestampMatrix ack, boolean fullDuplex, Long partnerBaseline) {
+		Baselines sentBaselines = baselines(sent, partnerId);
+		Long confirmed = partnerBaseline != null ? partnerBaseline : sentBaselines.last;
+		Baseline baseline = confirmed == null ? null : sentBaselines.get(confirmed);
+		sentBaselines.add(new Baseline(summary, ack));
+
+		MessageAErequest aeRequest = null;
+		if (baseline != null) {
+			TimestampVector summaryDelta = summary.delta(baseline.summary);
+			TimestampMatrix ackDelta = ack.delta(baseline.ack);
+			if (summaryDelta != null && ackDelta != null) {
+				aeRequest = new MessageAErequest(summaryDelta, ackDelta, fullDuplex);
+				aeRequest.setDelta(baseline.digest(), summary.digest(), ack.digest());
+			}
+		}
+		if (aeRequest == null) {
+			aeRequest = new MessageAErequest(summary, ack, fullDuplex);
+		}
+		aeRequest.setSender(localId, baselines(received, partnerId).last);
+		return aeRequest;
+	}
+
+	/**
+	 * @return an AE request with the complete summary and ack (e.g. when the partner could not rebuild the deltas)
+	 */
+	synchronized MessageAErequest newCompleteAErequest(String localId, String partnerId, TimestampVector summary,
+			TimestampMatrix ack, boolean fullDuplex) {
+		baselines(sent, partnerId).add(new Baseline(summary, ack));
+		MessageAErequest aeRequest = new MessageAErequest(summary, ack, fullDuplex);
+		aeRequest.setSender(localId, baselines(received, partnerId).last);
+		return aeRequest;
+	}
+
+	/**
+	 * Rebuilds the complete summary and ack of aeRequest (received from its sender) if it carries deltas, and keeps
+	 * them as a baseline of the sender.
+	 * 
+	 * @param aeRequest
+	 * @return false if the complete summary and ack could not be rebuilt: the sender should resend them complete
+	 */
+	synchronized boolean receive(MessageAErequest aeRequest) {
+		String partnerId = aeRequest.getSenderId();
+		if (partnerId == null) {
+			return !aeRequest.isDelta();
+		}
+		Baselines sentBaselines = baselines(sent, partnerId);
+		Long confirmed = aeRequest.getBaselineDigest();
+		if (confirmed != null && sentBaselines.containsKey(confirmed)) {
+			sentBaselines.last = confirmed;
+		}
+		Baselines receivedBaselines = baselines(received, partnerId);
+		if (aeRequest.isDelta()) {
+			Baseline base = receivedBaselines.get(aeRequest.getDeltaBase());
+			if (base == null) {
+				return false;
+			}
+			TimestampVector summary = base.summary.clone();
+			summary.updateMax(aeRequest.getSummary());
+			TimestampMatrix ack = base.ack.clone();
+			ack.updateMax(aeRequest.getAck());
+			if (summary.digest() != aeRequest.getSummaryDigest() || ack.digest() != aeRequest.getAckDigest()) {
+				return false;
+			}
+			aeRequest.resolveDelta(summary, ack);
+		}
+		Baseline baseline = new Baseline(aeRequest.getSummary(), aeRequest.getAck());
+		receivedBaselines.add(baseline);
+		receivedBaselines.last = baseline.digest();
+		return true;
+	}
+
+	/**
+	 * Forgets the baselines of a partner (e.g. when a session with it fails)
+	 * 
+	 * @param partnerId
+	 */
+	synchronized void forget(String partnerId) {
+		sent.remove(partnerId);
+		received.remove(partnerId);
+	}
+
+	private static Baselines baselines(Map<String, Baselines> baselines, String partnerId) {
+		Baselines partnerBaselines = baselines.get(partnerId);
+		if (partnerBaselines == null) {
+			partnerBaselines = new Baselines();
+			baselines.put(partnerId, partnerBaselines);
+		}
+		return partnerBaselines;
+	}
+}
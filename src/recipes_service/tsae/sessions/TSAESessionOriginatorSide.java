@@ -21,10 +21,17 @@
 package recipes_service.tsae.sessions;
 
 import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import communication.ObjectInputStream_DS;
@@ -33,18 +40,24 @@ import edu.uoc.dpcs.lsim.LSimFactory;
 import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 //LSim logging system imports sgeag@2017
 import lsim.worker.LSimWorker;
+import recipes_service.ReplicaSnapshot;
 import recipes_service.ServerData;
 import recipes_service.activity_simulation.SimulationData;
 import recipes_service.communication.Host;
 import recipes_service.communication.Message;
 import recipes_service.communication.MessageAErequest;
+import recipes_service.communication.MessageDigest;
 import recipes_service.communication.MessageEndTSAE;
 import recipes_service.communication.MessageOperation;
+import recipes_service.communication.MessageOperationBatch;
+import recipes_service.communication.MessageResendSummary;
 import recipes_service.communication.MsgType;
+import recipes_service.communication.WireFormat;
 import recipes_service.data.Operation;
-import recipes_service.tsae.data_structures.Log;
+import recipes_service.tsae.data_structures.LogSnapshot;
 import recipes_service.tsae.data_structures.TimestampMatrix;
 import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.tsae.sessions.ConnectionPool.Connection;
 
 /**
  * @author Joan-Manuel Marques December 2012
@@ -58,16 +71,56 @@ public class TSAESessionOriginatorSide extends TimerTask {
 
 	private ServerData serverData;
 
+	// connections to partners
+	private ConnectionPool connectionPool;
+
+	// true while a round started by the timer is running in the session executor
+	private AtomicBoolean roundRunning = new AtomicBoolean(false);
+
+	// operations sent and received in the sessions completed since the last call to takeOperationsExchanged()
+	private AtomicInteger operationsExchanged = new AtomicInteger(0);
+
 	public TSAESessionOriginatorSide(ServerData serverData) {
 		super();
 		this.serverData = serverData;
+		this.connectionPool = new ConnectionPool(serverData);
 	}
 
 	/**
 	 * Implementation of the TimeStamped Anti-Entropy protocol
 	 */
 	public void run() {
-		sessionWithN(serverData.getNumberSessions());
+		if (!serverData.useVirtualThreads()) {
+			sessionWithN(serverData.getNumberSessions());
+			return;
+		}
+		// the timer thread only starts the sessions, which run on a virtual thread. A round is skipped if the previous
+		// one has not finished yet
+		if (!roundRunning.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			serverData.getSessionExecutor().execute(new Runnable() {
+				public void run() {
+					try {
+						sessionWithN(serverData.getNumberSessions());
+					} finally {
+						roundRunning.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			roundRunning.set(false);
+		}
+	}
+
+	/**
+	 * Used by AdaptiveSessionScheduler to estimate how far the local node is from its partners
+	 * 
+	 * @return number of operations sent and received in the sessions completed since the previous call
+	 */
+	int takeOperationsExchanged() {
+		return operationsExchanged.getAndSet(0);
 	}
 
 	/**
@@ -79,19 +132,108 @@ public class TSAESessionOriginatorSide extends TimerTask {
 		if (!SimulationData.getInstance().isConnected())
 			return;
 		List<Host> partnersTSAEsession = serverData.getRandomPartners(num);
+		if (serverData.isParallelSessions() && partnersTSAEsession.size() > 1) {
+			parallelSessions(partnersTSAEsession);
+			return;
+		}
 		Host n;
 		for (int i = 0; i < partnersTSAEsession.size(); i++) {
 			n = partnersTSAEsession.get(i);
-			sessionTSAE(n);
+			sessionTSAE(n, 0);
+		}
+	}
+
+	/**
+	 * Performs concurrently a TSAE session with each partner, in the session executor of serverData, and waits until
+	 * all of them finish or the round timeout expires. Sessions are also bounded by the round timeout (connection and
+	 * reads), so a slow or unreachable partner does not delay the rest.
+	 * 
+	 * Operations received in each session are merged by ServerData.processOperationQueue(), as the ones of concurrent
+	 * sessions from partners.
+	 * 
+	 * @param partners
+	 */
+	private void parallelSessions(List<Host> partners) {
+		final int timeout = (int) Math.min(Integer.MAX_VALUE, Math.max(1, serverData.getSessionRoundTimeout()));
+		CompletionService<Host> completionService = new ExecutorCompletionService<Host>(
+				serverData.getSessionExecutor());
+		List<Future<Host>> sessions = new ArrayList<Future<Host>>(partners.size());
+		for (final Host n : partners) {
+			try {
+				sessions.add(completionService.submit(new Callable<Host>() {
+					public Host call() {
+						sessionTSAE(n, timeout);
+						return n;
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				lsim.log(Level.ERROR, "[TSAESessionOriginatorSide] cannot start a TSAE session: " + e.getMessage());
+			}
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		try {
+			for (int finished = 0; finished < sessions.size(); finished++) {
+				long remaining = deadline - System.nanoTime();
+				Future<Host> session = remaining > 0 ? completionService.poll(remaining, TimeUnit.NANOSECONDS) : null;
+				if (session == null) {
+					lsim.log(Level.WARN, "[TSAESessionOriginatorSide] round timeout expired: "
+							+ (sessions.size() - finished) + " TSAE sessions have not finished");
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Future<Host> session : sessions) {
+			session.cancel(true);
 		}
 	}
 
+	/**
+	 * Sends a message to the partner (the digests or the AE request that start a session) and receives its first reply
+	 * 
+	 * @param connection
+	 * @param first
+	 * @return first message received from the partner
+	 */
+	private Message startSession(Connection connection, Message first) throws IOException, ClassNotFoundException {
+		String currentThread = Thread.currentThread().toString();
+		connection.out.writeObject(first);
+		lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+				+ first.getSessionNumber() + "] sent message: " + first);
+		Message msg = (Message) connection.in.readObject();
+		lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+				+ first.getSessionNumber() + "] received message: " + msg);
+		return msg;
+	}
+
+	/**
+	 * Called when the first message of a session could not be sent or its reply could not be received. If the
+	 * connection was a pooled one, it was no longer valid (e.g. closed by the partner): it is replaced by a new one.
+	 * 
+	 * @param connection
+	 * @param n partner
+	 * @param timeout
+	 * @param e error of the first message
+	 * @return the new connection
+	 * @throws IOException e if the connection was not a pooled one or the new connection can not be opened
+	 */
+	private Connection reconnect(Connection connection, Host n, int timeout, IOException e) throws IOException {
+		if (!connection.isReused()) {
+			throw e;
+		}
+		connectionPool.invalidate(connection);
+		return connectionPool.open(n, timeout);
+	}
+
 	/**
 	 * This method perform a TSAE session with the partner server n
 	 * 
 	 * @param n
+	 * @param timeout timeout (in milliseconds) for connecting and for each read; 0: no timeout
 	 */
-	private void sessionTSAE(Host n) {
+	private void sessionTSAE(Host n, int timeout) {
 		int current_session_number = session_number.incrementAndGet();
 		String currentThread = Thread.currentThread().toString();
 
@@ -102,42 +244,80 @@ public class TSAESessionOriginatorSide extends TimerTask {
 				+ "] TSAE session");
 
 		// Sync block to avoid concurrent TSAESession. If two process try to add same operations
+		Connection connection = null;
+		boolean completed = false;
 		try {
-			Socket socket = new Socket(n.getAddress(), n.getPort());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
+			connection = connectionPool.borrow(n, timeout);
 
-			TimestampVector localSummary = null;
-			TimestampMatrix localAck = null;
-			Log localLog = null;
+			// exchange the digests of summary and ack: when they are equal there is nothing to do
+			boolean digestHandshake = serverData.isDigestHandshake();
+			Message msg;
+			if (digestHandshake) {
+				MessageDigest localDigest = PartnerSession.localDigest(serverData);
+				localDigest.setSessionNumber(current_session_number);
+				try {
+					msg = startSession(connection, localDigest);
+				} catch (IOException e) {
+					connection = reconnect(connection, n, timeout, e);
+					msg = startSession(connection, localDigest);
+				}
+				if (msg.type() != MsgType.DIGEST) {
+					return;
+				}
+				if (localDigest.matches((MessageDigest) msg)) {
+					lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+							+ current_session_number + "] same summary and ack as the partner");
+					completed = true;
+					return;
+				}
+			}
 
-			List<Operation> operationsReceived = new ArrayList<Operation>();
+			ReceivedOperations operationsReceived = new ReceivedOperations(serverData, current_session_number);
 
 			// Send to partner: local's summary and ack
 			// ...
-			// Clone to prevent concurrent modification
-			synchronized (serverData.getCommunicationLock()) {
-				localSummary = serverData.getSummary().clone();
-				localAck = serverData.getAck().clone();
-				localLog = serverData.getLog().clone();
-			}
+			// Copy to prevent concurrent modification
+			ReplicaSnapshot snapshot = serverData.snapshot();
+			TimestampVector localSummary = snapshot.getSummary();
+			TimestampMatrix localAck = snapshot.getAck();
+			LogSnapshot localLog = snapshot.getLog();
 			// localAck.update(serverData.getId(), localSummary);
 
 			// ...
-			Message msg = new MessageAErequest(localSummary, localAck);
-			msg.setSessionNumber(current_session_number);
-			out.writeObject(msg);
-			lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
-					+ current_session_number + "] sent message: " + msg);
+			boolean fullDuplex = serverData.isFullDuplexSessions();
+			MessageAErequest aeRequest = newAErequest(n, localSummary, localAck, fullDuplex, false,
+					current_session_number);
+			if (digestHandshake) {
+				msg = startSession(connection, aeRequest);
+			} else {
+				try {
+					msg = startSession(connection, aeRequest);
+				} catch (IOException e) {
+					connection = reconnect(connection, n, timeout, e);
+					msg = startSession(connection, aeRequest);
+				}
+			}
+			if (msg.type() == MsgType.RESEND_SUMMARY) {
+				// the partner could not rebuild the deltas: send the complete summary and ack
+				aeRequest = newAErequest(n, localSummary, localAck, fullDuplex, true, current_session_number);
+				msg = startSession(connection, aeRequest);
+			}
+			ObjectInputStream_DS in = connection.in;
+			ObjectOutputStream_DS out = connection.out;
+
+			if (fullDuplex) {
+				completed = fullDuplexSession(connection, aeRequest, msg, localLog, current_session_number);
+				return;
+			}
 
 			// receive operations from partner
-			msg = (Message) in.readObject();
-			lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
-					+ current_session_number + "] received message: " + msg);
-			while (msg.type() == MsgType.OPERATION) {
+			while (msg.type() == MsgType.OPERATION || msg.type() == MsgType.OPERATION_BATCH) {
 
-				Operation operation = ((MessageOperation) msg).getOperation();
-				operationsReceived.add(operation);
+				if (msg.type() == MsgType.OPERATION) {
+					operationsReceived.add(((MessageOperation) msg).getOperation());
+				} else {
+					operationsReceived.addAll(((MessageOperationBatch) msg).getOperations());
+				}
 				// ...
 				msg = (Message) in.readObject();
 				lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
@@ -145,28 +325,18 @@ public class TSAESessionOriginatorSide extends TimerTask {
 			}
 
 			// receive partner's summary and ack
-			if (msg.type() == MsgType.AE_REQUEST) {
+			if (msg.type() == MsgType.AE_REQUEST && !resolveDeltas((MessageAErequest) msg)) {
+				msg = requestCompleteSummary(connection, current_session_number);
+			}
+			if (msg.type() == MsgType.AE_REQUEST && !((MessageAErequest) msg).isDelta()) {
 				TimestampVector partnerSummary = ((MessageAErequest) msg).getSummary();
 				TimestampMatrix partnerAck = ((MessageAErequest) msg).getAck();
+				negotiateCompression(connection, aeRequest, (MessageAErequest) msg);
 
 				List<Operation> operationsToSend = localLog.listNewer(partnerSummary);
 
-				for (Operation operation : operationsToSend) {
-					msg = new MessageOperation(operation);
-					// ...
-					msg.setSessionNumber(current_session_number);
-					out.writeObject(msg);
-					lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
-							+ current_session_number + "] sent message: " + msg);
-					// ...
-				}
-
-				// send and "end of TSAE session" message
-				msg = new MessageEndTSAE();
-				msg.setSessionNumber(current_session_number);
-				out.writeObject(msg);
-				lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
-						+ current_session_number + "] sent message: " + msg);
+				// send operations and an "end of TSAE session" message
+				sendOperations(out, operationsToSend, current_session_number);
 
 				// receive message to inform about the ending of the TSAE session
 				msg = (Message) in.readObject();
@@ -176,14 +346,12 @@ public class TSAESessionOriginatorSide extends TimerTask {
 
 				if (msg.type() == MsgType.END_TSAE) {
 					// ...
-					synchronized (serverData.getCommunicationLock()) {
-						serverData.processOperationQueue(current_session_number, partnerSummary, partnerAck,
-								operationsReceived);
-					}
+					operationsReceived.end(partnerSummary, partnerAck);
+					operationsExchanged.addAndGet(operationsReceived.size() + operationsToSend.size());
+					completed = true;
 					// ...
 				}
 			}
-			socket.close();
 
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
@@ -192,9 +360,259 @@ public class TSAESessionOriginatorSide extends TimerTask {
 			e.printStackTrace();
 			System.exit(1);
 		} catch (IOException e) {
+		} finally {
+			if (connection != null) {
+				if (completed) {
+					connectionPool.release(connection);
+				} else {
+					connectionPool.invalidate(connection);
+				}
+			}
+			if (!completed && useDeltaSummaries()) {
+				// the partner may not have received the last summary and ack sent
+				serverData.getSummaryBaselines().forget(n.getId());
+			}
+			lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+					+ current_session_number + "] End TSAE session");
 		}
+	}
 
-		lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: " + current_session_number
-				+ "] End TSAE session");
+	/**
+	 * Rest of a full-duplex session once the AE request has been sent: when the partner's summary and ack are
+	 * received, local operations are sent by another thread (of the session executor) while the operations of the
+	 * partner are received. The partner sends its summary and ack, its operations and an "end of TSAE session"
+	 * message.
+	 * 
+	 * @param connection
+	 * @param aeRequest AE request sent to the partner
+	 * @param msg first message received from the partner
+	 * @param localLog
+	 * @param current_session_number
+	 * @return true if the session ended properly
+	 */
+	private boolean fullDuplexSession(Connection connection, MessageAErequest aeRequest, Message msg, LogSnapshot localLog,
+			final int current_session_number) throws IOException, ClassNotFoundException {
+		// receive partner's summary and ack
+		if (msg.type() != MsgType.AE_REQUEST) {
+			return false;
+		}
+		if (!resolveDeltas((MessageAErequest) msg)) {
+			return resentSummarySession(connection, aeRequest, localLog, current_session_number);
+		}
+		TimestampVector partnerSummary = ((MessageAErequest) msg).getSummary();
+		TimestampMatrix partnerAck = ((MessageAErequest) msg).getAck();
+		negotiateCompression(connection, aeRequest, (MessageAErequest) msg);
+
+		// send operations while receiving the ones from partner
+		final List<Operation> operationsToSend = localLog.listNewer(partnerSummary);
+		final ObjectOutputStream_DS out = connection.out;
+		Future<Void> writer;
+		try {
+			writer = serverData.getSessionExecutor().submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					sendOperations(out, operationsToSend, current_session_number);
+					return null;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+
+		// receive operations from partner
+		ReceivedOperations operationsReceived = new ReceivedOperations(serverData, current_session_number);
+		msg = receiveOperations(connection, operationsReceived, current_session_number);
+
+		// receive message to inform about the ending of the TSAE session
+		if (msg.type() != MsgType.END_TSAE) {
+			return false;
+		}
+		try {
+			writer.get();
+		} catch (ExecutionException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		operationsReceived.end(partnerSummary, partnerAck);
+		operationsExchanged.addAndGet(operationsReceived.size() + operationsToSend.size());
+		return true;
+	}
+
+	/**
+	 * Rest of a full-duplex session when the summary and ack of the partner could not be rebuilt from its deltas:
+	 * they are requested again and the partner sends them (complete) after its operations and its "end of TSAE
+	 * session" message. Then local operations are sent.
+	 * 
+	 * @param connection
+	 * @param aeRequest AE request sent to the partner
+	 * @param localLog
+	 * @param current_session_number
+	 * @return true if the session ended properly
+	 */
+	private boolean resentSummarySession(Connection connection, MessageAErequest aeRequest, LogSnapshot localLog,
+			int current_session_number) throws IOException, ClassNotFoundException {
+		ReceivedOperations operationsReceived = new ReceivedOperations(serverData, current_session_number);
+		Message resend = new MessageResendSummary();
+		resend.setSessionNumber(current_session_number);
+		connection.out.writeObject(resend);
+		Message msg = receiveOperations(connection, operationsReceived, current_session_number);
+		if (msg.type() != MsgType.END_TSAE) {
+			return false;
+		}
+		msg = (Message) connection.in.readObject();
+		lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + Thread.currentThread() + "] [session: "
+				+ current_session_number + "] received message: " + msg);
+		if (msg.type() != MsgType.AE_REQUEST || !resolveDeltas((MessageAErequest) msg)) {
+			return false;
+		}
+		MessageAErequest partnerRequest = (MessageAErequest) msg;
+		negotiateCompression(connection, aeRequest, partnerRequest);
+		List<Operation> operationsToSend = localLog.listNewer(partnerRequest.getSummary());
+		sendOperations(connection.out, operationsToSend, current_session_number);
+		operationsReceived.end(partnerRequest.getSummary(), partnerRequest.getAck());
+		operationsExchanged.addAndGet(operationsReceived.size() + operationsToSend.size());
+		return true;
+	}
+
+	/**
+	 * Receives operations from the partner
+	 * 
+	 * @param connection
+	 * @param operationsReceived
+	 * @param current_session_number
+	 * @return first message received that is not an operation
+	 */
+	private Message receiveOperations(Connection connection, ReceivedOperations operationsReceived,
+			int current_session_number) throws IOException, ClassNotFoundException {
+		String currentThread = Thread.currentThread().toString();
+		Message msg = (Message) connection.in.readObject();
+		lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+				+ current_session_number + "] received message: " + msg);
+		while (msg.type() == MsgType.OPERATION || msg.type() == MsgType.OPERATION_BATCH) {
+			if (msg.type() == MsgType.OPERATION) {
+				operationsReceived.add(((MessageOperation) msg).getOperation());
+			} else {
+				operationsReceived.addAll(((MessageOperationBatch) msg).getOperations());
+			}
+			msg = (Message) connection.in.readObject();
+			lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+					+ current_session_number + "] received message: " + msg);
+		}
+		return msg;
+	}
+
+	/**
+	 * Asks the partner to resend its summary and ack complete, because they could not be rebuilt from its deltas
+	 * 
+	 * @param connection
+	 * @param current_session_number
+	 * @return the reply of the partner (an AE request that is still a delta if it could not be rebuilt either)
+	 */
+	private Message requestCompleteSummary(Connection connection, int current_session_number) throws IOException,
+			ClassNotFoundException {
+		Message resend = new MessageResendSummary();
+		resend.setSessionNumber(current_session_number);
+		Message msg = startSession(connection, resend);
+		if (msg.type() == MsgType.AE_REQUEST) {
+			resolveDeltas((MessageAErequest) msg);
+		}
+		return msg;
+	}
+
+	/**
+	 * @param n partner
+	 * @param localSummary
+	 * @param localAck
+	 * @param fullDuplex
+	 * @param complete true to send the complete summary and ack even if the partner could rebuild them from deltas
+	 * @param current_session_number
+	 * @return AE request to start a session with n
+	 */
+	private MessageAErequest newAErequest(Host n, TimestampVector localSummary, TimestampMatrix localAck,
+			boolean fullDuplex, boolean complete, int current_session_number) {
+		MessageAErequest aeRequest;
+		if (!useDeltaSummaries()) {
+			aeRequest = new MessageAErequest(localSummary, localAck, fullDuplex);
+		} else if (complete) {
+			aeRequest = serverData.getSummaryBaselines().newCompleteAErequest(serverData.getId(), n.getId(),
+					localSummary, localAck, fullDuplex);
+		} else {
+			aeRequest = serverData.getSummaryBaselines().newAErequest(serverData.getId(), n.getId(), localSummary,
+					localAck, fullDuplex, null);
+		}
+		aeRequest.setCompression(serverData.isCompression() && serverData.getWireFormat() == WireFormat.BINARY);
+		aeRequest.setSessionNumber(current_session_number);
+		return aeRequest;
+	}
+
+	/**
+	 * @return true if AE requests only carry the entries of summary and ack changed since the last ones sent to the
+	 *         partner (see SummaryBaselines)
+	 */
+	private boolean useDeltaSummaries() {
+		return serverData.isDeltaSummaries() && serverData.getWireFormat() == WireFormat.BINARY;
+	}
+
+	/**
+	 * @param msg AE request received from the partner
+	 * @return false if it carries deltas that can not be resolved into the complete summary and ack
+	 */
+	private boolean resolveDeltas(MessageAErequest msg) {
+		if (!useDeltaSummaries()) {
+			return !msg.isDelta();
+		}
+		return serverData.getSummaryBaselines().receive(msg);
+	}
+
+	/**
+	 * Compresses the messages sent from now on when both sides support compression: the local AE request asked for it
+	 * and the one of the partner accepted it
+	 * 
+	 * @param connection
+	 * @param localRequest
+	 * @param partnerRequest
+	 */
+	private void negotiateCompression(Connection connection, MessageAErequest localRequest,
+			MessageAErequest partnerRequest) {
+		if (localRequest.isCompression() && partnerRequest.isCompression()) {
+			connection.out.enableCompression(serverData.getCompressionThreshold());
+		}
+	}
+
+	/**
+	 * Sends operations (in batches of up to operationBatchSize operations) followed by an "end of TSAE session"
+	 * message
+	 * 
+	 * @param out
+	 * @param operationsToSend
+	 * @param current_session_number
+	 */
+	private void sendOperations(ObjectOutputStream_DS out, List<Operation> operationsToSend,
+			int current_session_number) throws IOException {
+		String currentThread = Thread.currentThread().toString();
+		Message msg;
+		int batchSize = Math.max(1, serverData.getOperationBatchSize());
+		for (int i = 0; i < operationsToSend.size(); i += batchSize) {
+			if (batchSize == 1) {
+				msg = new MessageOperation(operationsToSend.get(i));
+			} else {
+				msg = new MessageOperationBatch(
+						operationsToSend.subList(i, Math.min(i + batchSize, operationsToSend.size())));
+			}
+			// ...
+			msg.setSessionNumber(current_session_number);
+			out.writeObject(msg);
+			lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+					+ current_session_number + "] sent message: " + msg);
+			// ...
+		}
+
+		// send and "end of TSAE session" message
+		msg = new MessageEndTSAE();
+		msg.setSessionNumber(current_session_number);
+		out.writeObject(msg);
+		lsim.log(Level.TRACE, "[TSAESessionOriginatorSide] [" + currentThread + "] [session: "
+				+ current_session_number + "] sent message: " + msg);
 	}
-}
\ No newline at end of file
+}
@@ -22,8 +22,11 @@ package recipes_service.tsae.sessions;
 
 import java.io.IOException;
 import java.net.Socket;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import communication.ObjectInputStream_DS;
 import communication.ObjectOutputStream_DS;
@@ -33,19 +36,13 @@ import edu.uoc.dpcs.lsim.logger.LoggerManager.Level;
 import lsim.worker.LSimWorker;
 import recipes_service.ServerData;
 import recipes_service.communication.Message;
-import recipes_service.communication.MessageAErequest;
-import recipes_service.communication.MessageEndTSAE;
-import recipes_service.communication.MessageOperation;
-import recipes_service.communication.MsgType;
-import recipes_service.data.Operation;
-import recipes_service.tsae.data_structures.TimestampMatrix;
-import recipes_service.tsae.data_structures.TimestampVector;
+import recipes_service.communication.WireFormat;
 
 /**
  * @author Joan-Manuel Marques December 2012
  *
  */
-public class TSAESessionPartnerSide extends Thread {
+public class TSAESessionPartnerSide implements Runnable {
 	// Needed for the logging system sgeag@2017
 	private LSimWorker lsim = LSimFactory.getWorkerInstance();
 
@@ -53,112 +50,130 @@ public class TSAESessionPartnerSide extends Thread {
 	private ServerData serverData = null;
 
 	public TSAESessionPartnerSide(Socket socket, ServerData serverData) {
-		super("TSAEPartnerSideThread");
 		this.socket = socket;
 		this.serverData = serverData;
 	}
 
 	public void run() {
 
-		Message msg = null;
-
-		int current_session_number = -1;
-
 		String currentThread = Thread.currentThread().toString();
 
-		try {
-			ObjectOutputStream_DS out = new ObjectOutputStream_DS(socket.getOutputStream());
-			ObjectInputStream_DS in = new ObjectInputStream_DS(socket.getInputStream());
-
-			// receive originator's summary and ack
-			msg = (Message) in.readObject();
-			current_session_number = msg.getSessionNumber();
-
-			lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: " + current_session_number
-					+ "] TSAE session");
-			lsim.log(Level.TRACE,
-					"[TSAESessionPartnerSide] [session: " + current_session_number + "] received message: " + msg);
-			if (msg.type() == MsgType.AE_REQUEST) {
-				// send operations
-				TimestampVector originatorSummary = ((MessageAErequest) msg).getSummary();
-				TimestampMatrix originatorAck = ((MessageAErequest) msg).getAck();
+		PartnerSession session = new PartnerSession(serverData);
+		ObjectOutputStream_DS out = null;
+		ObjectInputStream_DS in = null;
 
-				// send to originator: local's summary and ack
-				TimestampVector localSummary = null;
-				TimestampMatrix localAck = null;
-				List<Operation> operationsToSend = null;
-				// Send to partner: local's summary and ack
-				// ...
-				// Clone to prevent concurrent modification
-				synchronized (serverData.getCommunicationLock()) {
-					operationsToSend = serverData.getLog().listNewer(originatorSummary);
-					localSummary = serverData.getSummary().clone();
-					localAck = serverData.getAck().clone();
+		try {
+			WireFormat wireFormat = serverData.getWireFormat();
+			out = new ObjectOutputStream_DS(socket.getOutputStream(),
+					wireFormat.newCodec(serverData.isOperationCache()));
+			in = new ObjectInputStream_DS(socket.getInputStream(), wireFormat.newCodec());
+
+			// the originator may do several sessions on the same connection (when it pools connections): it closes
+			// the connection when it doesn't need it anymore
+			while (true) {
+				// full duplex: replies written by another thread while the operations of the originator are read
+				Future<Void> writer = null;
+				while (!session.isEnded()) {
+					Message msg = (Message) in.readObject();
+					List<Message> replies = session.receive(msg);
+					if (session.compressReplies()) {
+						out.enableCompression(serverData.getCompressionThreshold());
+					}
+					if (session.isFullDuplex() && writer == null && !session.isEnded() && !replies.isEmpty()) {
+						writer = sendAsync(out, replies, session.getSessionNumber());
+					} else if (!replies.isEmpty()) {
+						// after the ones being sent by the writer (e.g. the complete summary and ack requested again)
+						if (!join(writer)) {
+							throw new IOException("Replies could not be sent");
+						}
+						writer = null;
+						send(out, replies, session.getSessionNumber());
+					}
 				}
-
-				for (Operation operation : operationsToSend) {
-					msg = new MessageOperation(operation);
-					msg.setSessionNumber(current_session_number);
-					out.writeObject(msg);
-					lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
-							+ current_session_number + "] sent message: " + msg);
+				if (!join(writer) || !session.applyOperations()) {
+					break;
 				}
-
-				// localAck.update(serverData.getId(), localSummary);
-
-				// ...
-
-				msg = new MessageAErequest(localSummary, localAck);
-				msg.setSessionNumber(current_session_number);
-				out.writeObject(msg);
 				lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
-						+ current_session_number + "] sent message: " + msg);
-
-				// receive operations
-				msg = (Message) in.readObject();
-				lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
-						+ current_session_number + "] received message: " + msg);
-
-				List<Operation> operationsReceived = new ArrayList<Operation>();
-				while (msg.type() == MsgType.OPERATION) {
-					Operation operation = ((MessageOperation) msg).getOperation();
-					operationsReceived.add(operation);
-					// ...
-					msg = (Message) in.readObject();
-					lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
-							+ current_session_number + "] received message: " + msg);
-				}
-
-				// receive message to inform about the ending of the TSAE session
-				if (msg.type() == MsgType.END_TSAE) {
-					// send and "end of TSAE session" message
-					msg = new MessageEndTSAE();
-					msg.setSessionNumber(current_session_number);
-					out.writeObject(msg);
-					lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
-							+ current_session_number + "] sent message: " + msg);
-
-					// ...
-					synchronized (serverData.getCommunicationLock()) {
-						serverData.processOperationQueue(current_session_number, originatorSummary, originatorAck,
-								operationsReceived);
-					}
-					// ...
-
-				}
-
+						+ session.getSessionNumber() + "] End TSAE session");
+				out.reset();
+				session = new PartnerSession(serverData);
 			}
-			socket.close();
 
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
-			lsim.log(Level.FATAL, "[TSAESessionPartnerSide] [" + currentThread + "] [session: " + current_session_number
-					+ "]" + e.getMessage());
+			lsim.log(Level.FATAL, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
+					+ session.getSessionNumber() + "]" + e.getMessage());
 			e.printStackTrace();
 			System.exit(1);
 		} catch (IOException e) {
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+			}
+			try {
+				if (out != null) {
+					out.close();
+				}
+			} catch (IOException e) {
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: "
+				+ session.getSessionNumber() + "] End TSAE session");
+	}
+
+	private void send(ObjectOutputStream_DS out, List<Message> replies, int sessionNumber) throws IOException {
+		for (Message reply : replies) {
+			out.writeObject(reply);
+			lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + Thread.currentThread() + "] [session: "
+					+ sessionNumber + "] sent message: " + reply);
+		}
+	}
+
+	/**
+	 * Sends replies on a thread of the session executor (or on this thread if the executor does not accept it)
+	 * 
+	 * @return the task that sends them (null if they have already been sent)
+	 */
+	private Future<Void> sendAsync(final ObjectOutputStream_DS out, final List<Message> replies,
+			final int sessionNumber) throws IOException {
+		try {
+			return serverData.getSessionExecutor().submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					send(out, replies, sessionNumber);
+					return null;
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			send(out, replies, sessionNumber);
+			return null;
+		}
+	}
+
+	/**
+	 * Waits until writer has sent all its replies
+	 * 
+	 * @param writer
+	 * @return false if the replies could not be sent
+	 */
+	private boolean join(Future<Void> writer) {
+		if (writer == null) {
+			return true;
+		}
+		try {
+			writer.get();
+			return true;
+		} catch (ExecutionException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
-		lsim.log(Level.TRACE, "[TSAESessionPartnerSide] [" + currentThread + "] [session: " + current_session_number
-				+ "] End TSAE session");
 	}
-}
\ No newline at end of file
+}
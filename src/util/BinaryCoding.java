@@ -0,0 +1,132 @@
+/*
+* Copyright (c) Joan-Manuel Marques 2013. All rights reserved.
+* DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+*
+* This file is part of the practical assignment of Distributed Systems course.
+*
+* This code is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This code is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with this code.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package util;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Primitive encodings used by the binary wire format: variable-length integers and length-prefixed strings.
+ * 
+ * Lengths read from the wire are checked against the bytes left in the frame (see remaining()), so a corrupt or
+ * truncated frame causes an IOException instead of a huge allocation.
+ */
+public class BinaryCoding {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Writes a non-negative value using 7 bits per byte
+	 */
+	public static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	/**
+	 * Writes a value of any sign, small absolute values taking less bytes
+	 */
+	public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	public static long readSignedVarLong(DataInput in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Writes a (possibly null) string as its length followed by its UTF-8 bytes
+	 */
+	public static void writeString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		long length = readVarLong(in);
+		if (length == 0) {
+			return null;
+		}
+		if (length < 0 || length - 1 > remaining(in)) {
+			throw new IOException("String length out of bounds: " + (length - 1));
+		}
+		byte[] bytes = new byte[(int) (length - 1)];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Reads a length (or a number of items that take at least a byte each) written with writeVarInt
+	 * 
+	 * @throws IOException if it is negative or greater than the bytes left in the frame
+	 */
+	public static int readLength(DataInput in) throws IOException {
+		long length = readVarLong(in);
+		if (length < 0 || length > remaining(in)) {
+			throw new IOException("Length out of bounds: " + length);
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Decoders read each frame from a DataInputStream over the bytes of the frame, so available() is the number of
+	 * bytes left in it. Other inputs are not bounded.
+	 * 
+	 * @return bytes left in the frame being read
+	 */
+	public static int remaining(DataInput in) throws IOException {
+		if (in instanceof DataInputStream) {
+			return ((DataInputStream) in).available();
+		}
+		return Integer.MAX_VALUE;
+	}
+}